@@ -2,10 +2,14 @@ package ru.yandex.practicum.filmorate.controller;
 
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import ru.yandex.practicum.filmorate.model.Event;
 import ru.yandex.practicum.filmorate.service.EventService;
 
@@ -16,11 +20,36 @@ import java.util.List;
 @Slf4j
 @AllArgsConstructor
 public class EventController {
+    private static final int DEFAULT_PAGE_SIZE = 100;
+
     private final EventService eventService;
 
     @GetMapping("/users/{id}/feed")
-    public List<Event> getAllEvents(@PathVariable int id) {
-        log.debug("Event list output");
-        return eventService.getAllEvents(id);
+    public List<Event> getAllEvents(@PathVariable int id,
+                                    @RequestParam(value = "before", required = false) Integer before,
+                                    @RequestParam(value = "limit", required = false) Integer limit) {
+        if (before == null && limit == null) {
+            log.debug("Event list output");
+            return eventService.getAllEvents(id);
+        }
+        log.debug("Event page of user {} before id {} limit {}", id, before, limit);
+        return eventService.getEventsPage(id, before == null ? Integer.MAX_VALUE : before,
+                limit == null ? DEFAULT_PAGE_SIZE : limit);
+    }
+
+    @GetMapping(value = "/users/{id}/feed/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamEvents(@PathVariable int id,
+                                   @RequestHeader(value = "Last-Event-ID", required = false) Integer lastEventId) {
+        log.debug("Event stream of user {} from id {}", id, lastEventId);
+        return eventService.subscribe(id, lastEventId);
+    }
+
+    @GetMapping("/users/{id}/friends-feed")
+    public List<Event> getFriendsFeed(@PathVariable int id,
+                                      @RequestParam(value = "before", required = false) Integer before,
+                                      @RequestParam(value = "limit", required = false) Integer limit) {
+        log.debug("Friends feed of user {} before id {} limit {}", id, before, limit);
+        return eventService.getFriendsFeed(id, before == null ? Integer.MAX_VALUE : before,
+                limit == null ? DEFAULT_PAGE_SIZE : limit);
     }
 }
@@ -1,13 +1,24 @@
 package ru.yandex.practicum.filmorate.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import ru.yandex.practicum.filmorate.exceptions.ValidationException;
+import ru.yandex.practicum.filmorate.model.BatchResult;
 import ru.yandex.practicum.filmorate.model.Film;
 import ru.yandex.practicum.filmorate.model.enums.SortBy;
 import ru.yandex.practicum.filmorate.service.FilmService;
 
 import javax.validation.Valid;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.util.List;
 
 @RestController
@@ -15,18 +26,50 @@ import java.util.List;
 @Slf4j
 @AllArgsConstructor
 public class FilmController {
+    private static final int DEFAULT_PAGE_SIZE = 100;
+
     private final FilmService filmService;
+    private final ObjectMapper objectMapper;
 
     @GetMapping
-    public List<Film> allFilms() {
-        log.debug("Film's list: {}", filmService.getListAllFilms());
-        return filmService.getListAllFilms();
+    public List<Film> allFilms(@RequestParam(value = "afterId", required = false) Integer afterId,
+                               @RequestParam(value = "limit", required = false) Integer limit) {
+        if (afterId == null && limit == null) {
+            List<Film> films = filmService.getListAllFilms();
+            log.debug("Film's list size: {}", films.size());
+            return films;
+        }
+        log.debug("Film's page after id {} limit {}", afterId, limit);
+        return filmService.getFilmsPage(afterId == null ? 0 : afterId, limit == null ? DEFAULT_PAGE_SIZE : limit);
+    }
+
+    @GetMapping("/stream")
+    public ResponseEntity<StreamingResponseBody> streamFilms() {
+        log.debug("Film's list streaming");
+        StreamingResponseBody body = out -> {
+            JsonGenerator generator = objectMapper.getFactory().createGenerator(out)
+                    .disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+            generator.writeStartArray();
+            filmService.streamAllFilms(film -> {
+                try {
+                    generator.writeObject(film);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            generator.writeEndArray();
+            generator.close();
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
     }
 
     @GetMapping ("/director/{directorId}")
-    public List<Film> getAllFilmsByDirectorId(@PathVariable int directorId, @RequestParam(value = "sortBy") SortBy sortBy) {
-        log.debug("Film's list: {}", filmService.getAllFilmsByDirectorId(directorId,sortBy));
-        return filmService.getAllFilmsByDirectorId(directorId,sortBy);
+    public List<Film> getAllFilmsByDirectorId(@PathVariable int directorId, @RequestParam(value = "sortBy") SortBy sortBy,
+                                              @RequestParam(value = "offset", defaultValue = "0") int offset,
+                                              @RequestParam(value = "limit", required = false) Integer limit) {
+        log.debug("Films of director id {} sorted by {}", directorId, sortBy);
+        return filmService.getAllFilmsByDirectorId(directorId, sortBy, offset,
+                limit == null ? Integer.MAX_VALUE : limit);
     }
 
     @PostMapping
@@ -35,6 +78,18 @@ public class FilmController {
         return filmService.addFilm(film);
     }
 
+    @PostMapping(value = "/batch", consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    public BatchResult addFilms(InputStream body) throws IOException {
+        List<Film> films;
+        try {
+            films = objectMapper.readerFor(Film.class).<Film>readValues(body).readAll();
+        } catch (JsonProcessingException e) {
+            throw new ValidationException("Malformed films batch: " + e.getOriginalMessage());
+        }
+        log.debug("Films batch of {} received", films.size());
+        return filmService.addFilms(films);
+    }
+
     @DeleteMapping("/{id}")
     public Film deleteFilm(@PathVariable int id) {
         log.debug("Film by id {} was deleted", id);
@@ -72,6 +127,13 @@ public class FilmController {
         return filmService.getTopFilms(count, genreId, year);
     }
 
+    @GetMapping("/{id}/similar")
+    public List<Film> getSimilarFilms(@PathVariable int id,
+                                      @RequestParam(value = "count", defaultValue = "10", required = false) int count) {
+        log.debug("Films similar to film id {}", id);
+        return filmService.getSimilarFilms(id, count);
+    }
+
     @GetMapping("/common")
     public List<Film> getCommonFilms(@RequestParam(value = "userId") int userId, @RequestParam(value = "friendId") int friendId) {
         log.debug("Common films user id {} and user id {}", userId, friendId);
@@ -79,8 +141,10 @@ public class FilmController {
     }
 
     @GetMapping("/search")
-    public List<Film> searchFilms(@RequestParam(value = "query") String query, @RequestParam(value = "by") String by) {
+    public List<Film> searchFilms(@RequestParam(value = "query") String query, @RequestParam(value = "by") String by,
+                                  @RequestParam(value = "offset", defaultValue = "0") int offset,
+                                  @RequestParam(value = "limit", required = false) Integer limit) {
         log.debug("Search films by {} and query {}", by, query);
-        return filmService.searchFilms(query, by);
+        return filmService.searchFilms(query, by, offset, limit == null ? Integer.MAX_VALUE : limit);
     }
 }
@@ -1,14 +1,25 @@
 package ru.yandex.practicum.filmorate.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import ru.yandex.practicum.filmorate.exceptions.ValidationException;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.RecommendationStatus;
 import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.model.UserBatchResult;
 import ru.yandex.practicum.filmorate.service.UserService;
 
 import javax.validation.Valid;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.util.List;
 
 @RestController
@@ -16,12 +27,42 @@ import java.util.List;
 @Slf4j
 @AllArgsConstructor
 public class UserController {
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int DEFAULT_SUGGESTIONS = 10;
+
     private final UserService userService;
+    private final ObjectMapper objectMapper;
 
     @GetMapping
-    public List<User> allUsers() {
-        log.debug("User's list: {}", userService.getListAllUsers());
-        return userService.getListAllUsers();
+    public List<User> allUsers(@RequestParam(value = "afterId", required = false) Integer afterId,
+                               @RequestParam(value = "limit", required = false) Integer limit) {
+        if (afterId == null && limit == null) {
+            List<User> users = userService.getListAllUsers();
+            log.debug("User's list size: {}", users.size());
+            return users;
+        }
+        log.debug("User's page after id {} limit {}", afterId, limit);
+        return userService.getUsersPage(afterId == null ? 0 : afterId, limit == null ? DEFAULT_PAGE_SIZE : limit);
+    }
+
+    @GetMapping("/stream")
+    public ResponseEntity<StreamingResponseBody> streamUsers() {
+        log.debug("User's list streaming");
+        StreamingResponseBody body = out -> {
+            JsonGenerator generator = objectMapper.getFactory().createGenerator(out)
+                    .disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+            generator.writeStartArray();
+            userService.streamAllUsers(user -> {
+                try {
+                    generator.writeObject(user);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            generator.writeEndArray();
+            generator.close();
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
     }
 
     @PostMapping
@@ -30,6 +71,18 @@ public class UserController {
         return userService.addUser(user);
     }
 
+    @PostMapping(value = "/batch", consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    public UserBatchResult addUsers(InputStream body) throws IOException {
+        List<User> users;
+        try {
+            users = objectMapper.readerFor(User.class).<User>readValues(body).readAll();
+        } catch (JsonProcessingException e) {
+            throw new ValidationException("Malformed users batch: " + e.getOriginalMessage());
+        }
+        log.debug("Users batch of {} received", users.size());
+        return userService.addUsers(users);
+    }
+
     @PutMapping
     public User updateUser(@Valid @RequestBody User user) {
         log.debug("User updated: {}", user);
@@ -72,9 +125,23 @@ public class UserController {
         return userService.commonFriends(id, otherId);
     }
 
+    @GetMapping("/{id}/suggestions")
+    public List<User> getSuggestions(@PathVariable int id,
+                                     @RequestParam(value = "count", required = false) Integer count) {
+        log.debug("Friend suggestions for user id {}", id);
+        return userService.getSuggestions(id, count == null ? DEFAULT_SUGGESTIONS : count);
+    }
+
     @GetMapping("/{id}/recommendations")
-    public List<Film> getRecommendations(@PathVariable int id) {
+    public List<Film> getRecommendations(@PathVariable int id,
+                                         @RequestParam(value = "count", required = false) Integer count) {
         log.debug("Recommendations for user id {}", id);
-        return userService.getRecommendations(id);
+        return userService.getRecommendations(id, count == null ? Integer.MAX_VALUE : count);
+    }
+
+    @GetMapping("/{id}/recommendations/status")
+    public RecommendationStatus getRecommendationStatus(@PathVariable int id) {
+        log.debug("Recommendations status for user id {}", id);
+        return userService.getRecommendationStatus(id);
     }
 }
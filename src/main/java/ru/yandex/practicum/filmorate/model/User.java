@@ -24,6 +24,7 @@ public class User {
     @CustomTextAnnotation
     String login;
     String name;
+    @NotNull
     @PastOrPresent
     LocalDate birthday;
     @JsonIgnore
@@ -4,6 +4,9 @@ import lombok.AllArgsConstructor;
 import org.springframework.stereotype.Service;
 import ru.yandex.practicum.filmorate.model.Director;
 import ru.yandex.practicum.filmorate.storage.director.DirectorStorage;
+import ru.yandex.practicum.filmorate.storage.film.DirectorFilmography;
+import ru.yandex.practicum.filmorate.storage.film.FilmCache;
+import ru.yandex.practicum.filmorate.storage.film.FilmSearchIndex;
 
 import java.util.List;
 
@@ -11,6 +14,9 @@ import java.util.List;
 @AllArgsConstructor
 public class DirectorService {
     private final DirectorStorage directorStorage;
+    private final FilmSearchIndex filmSearchIndex;
+    private final FilmCache filmCache;
+    private final DirectorFilmography directorFilmography;
 
     public List<Director> getListAllDirectors() {
         return directorStorage.getListAllDirectors();
@@ -21,15 +27,24 @@ public class DirectorService {
     }
 
     public Director addDirector(Director director) {
-        return directorStorage.addDirector(director);
+        Director newDirector = directorStorage.addDirector(director);
+        filmSearchIndex.putDirector(newDirector);
+        return newDirector;
     }
 
     public Director updateDirector(Director director) {
-        return directorStorage.updateDirector(director);
+        Director updatedDirector = directorStorage.updateDirector(director);
+        filmSearchIndex.putDirector(updatedDirector);
+        filmCache.invalidateAll(directorFilmography.getFilmIds(updatedDirector.getId()));
+        return updatedDirector;
     }
 
     public Director deleteDirector(int id) {
-        return directorStorage.deleteDirector(id);
+        Director director = directorStorage.deleteDirector(id);
+        filmSearchIndex.removeDirector(id);
+        filmCache.invalidateAll(directorFilmography.getFilmIds(id));
+        directorFilmography.removeDirector(id);
+        return director;
     }
 
 }
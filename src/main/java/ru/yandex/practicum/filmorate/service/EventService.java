@@ -2,20 +2,81 @@ package ru.yandex.practicum.filmorate.service;
 
 import lombok.AllArgsConstructor;
 import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import ru.yandex.practicum.filmorate.exceptions.ValidationException;
 import ru.yandex.practicum.filmorate.model.Event;
 import ru.yandex.practicum.filmorate.storage.EventStorage;
-import ru.yandex.practicum.filmorate.storage.user.UserDBStorage;
+import ru.yandex.practicum.filmorate.storage.ExistenceIndex;
+import ru.yandex.practicum.filmorate.storage.FeedHub;
+import ru.yandex.practicum.filmorate.storage.FriendTimelines;
+import ru.yandex.practicum.filmorate.storage.user.FriendshipGraph;
 
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 @Service
 @AllArgsConstructor
 public class EventService {
+    private static final int REPLAY_LIMIT = 1000;
+
     private final EventStorage eventStorage;
-    private final UserDBStorage userStorage;
+    private final FeedHub feedHub;
+    private final FriendTimelines friendTimelines;
+    private final FriendshipGraph friendshipGraph;
+    private final ExistenceIndex existenceIndex;
 
+    /**
+     * Вся лента пользователя; для неизвестного id — UserNotFoundException (404), а не пустой список.
+     */
     public List<Event> getAllEvents(int id) {
-        userStorage.getUserById(id);
+        existenceIndex.requireUser(id);
         return eventStorage.getAllEvents(id);
     }
+
+    public List<Event> getEventsPage(int id, int before, int limit) {
+        if (limit <= 0) {
+            throw new ValidationException("Page limit must be positive");
+        }
+        existenceIndex.requireUser(id);
+        return eventStorage.getEventsPage(id, before, limit);
+    }
+
+    /**
+     * Подписка на живую ленту. Пропущенные события берутся из кольца в памяти,
+     * и только если клиент отстал дальше его начала — из базы.
+     */
+    public SseEmitter subscribe(int id, Integer lastEventId) {
+        existenceIndex.requireUser(id);
+        List<Event> backlog = lastEventId == null || feedHub.covers(id, lastEventId)
+                ? new ArrayList<>()
+                : eventStorage.getEventsAfter(id, lastEventId, REPLAY_LIMIT);
+        return feedHub.subscribe(id, lastEventId, backlog);
+    }
+
+    /**
+     * Лента действий друзей от новых событий к старым: готовая лента пользователя
+     * плюс события друзей с раздачей при чтении. События тех, кто уже не в друзьях, отбрасываются.
+     * Друзья проверяются по одному через граф, поэтому чтение не зависит от их числа.
+     */
+    public List<Event> getFriendsFeed(int id, int before, int limit) {
+        if (limit <= 0) {
+            throw new ValidationException("Page limit must be positive");
+        }
+        existenceIndex.requireUser(id);
+        Map<Integer, Event> events = new TreeMap<>(Comparator.reverseOrder());
+        for (Event event : eventStorage.getEventsByIds(friendTimelines.getEventIds(id, before))) {
+            if (friendshipGraph.isFriend(id, event.getUserId())) {
+                events.put(event.getEventId(), event);
+            }
+        }
+        List<Integer> readAuthors = friendTimelines.fanOutOnRead(authorId -> friendshipGraph.isFriend(id, authorId));
+        for (Event event : eventStorage.getEventsOfUsers(readAuthors, before, limit)) {
+            events.put(event.getEventId(), event);
+        }
+        List<Event> page = new ArrayList<>(events.values());
+        return page.size() > limit ? new ArrayList<>(page.subList(0, limit)) : page;
+    }
 }
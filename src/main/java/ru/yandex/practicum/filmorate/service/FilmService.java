@@ -2,28 +2,76 @@ package ru.yandex.practicum.filmorate.service;
 
 import lombok.AllArgsConstructor;
 import org.springframework.stereotype.Service;
+import ru.yandex.practicum.filmorate.exceptions.FilmNotFoundException;
+import ru.yandex.practicum.filmorate.exceptions.ValidationException;
 import ru.yandex.practicum.filmorate.model.enums.EventOperation;
 import ru.yandex.practicum.filmorate.model.enums.EventType;
+import ru.yandex.practicum.filmorate.model.BatchResult;
+import ru.yandex.practicum.filmorate.model.Director;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Genre;
 import ru.yandex.practicum.filmorate.model.enums.SortBy;
 import ru.yandex.practicum.filmorate.storage.EventStorage;
+import ru.yandex.practicum.filmorate.storage.ExistenceIndex;
+import ru.yandex.practicum.filmorate.storage.ReferenceSnapshot;
+import ru.yandex.practicum.filmorate.storage.film.DirectorFilmography;
+import ru.yandex.practicum.filmorate.storage.film.FilmSearchIndex;
+import ru.yandex.practicum.filmorate.storage.film.FilmSimilarityIndex;
 import ru.yandex.practicum.filmorate.storage.film.FilmStorage;
+import ru.yandex.practicum.filmorate.storage.film.LikeSetStore;
+import ru.yandex.practicum.filmorate.storage.film.PopularityLeaderboard;
+import ru.yandex.practicum.filmorate.storage.review.ReviewStorage;
 
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 @Service
 @AllArgsConstructor
 public class FilmService {
+    private static final int BATCH_CHUNK_SIZE = 500;
 
     private final FilmStorage filmStorage;
     private final EventStorage eventStorage;
+    private final PopularityLeaderboard popularityLeaderboard;
+    private final FilmSearchIndex filmSearchIndex;
+    private final LikeSetStore likeSetStore;
+    private final RecommendationService recommendationService;
+    private final FilmSimilarityIndex filmSimilarityIndex;
+    private final DirectorFilmography directorFilmography;
+    private final ReferenceSnapshot referenceSnapshot;
+    private final Validator validator;
+    private final ExistenceIndex existenceIndex;
+    private final ReviewStorage reviewStorage;
 
     public List<Film> getListAllFilms() {
         return filmStorage.getListAllFilms();
     }
 
-    public List<Film> getAllFilmsByDirectorId(int directorId, SortBy sortBy) {
-        return filmStorage.getAllFilmsByDirectorId(directorId, sortBy);
+    public List<Film> getFilmsPage(int afterId, int limit) {
+        if (limit <= 0) {
+            throw new ValidationException("Page limit must be positive");
+        }
+        return filmStorage.getFilmsPage(afterId, limit);
+    }
+
+    public void streamAllFilms(Consumer<Film> consumer) {
+        filmStorage.streamAllFilms(consumer);
+    }
+
+    public List<Film> getAllFilmsByDirectorId(int directorId, SortBy sortBy, int offset, int limit) {
+        if (offset < 0 || limit <= 0) {
+            throw new ValidationException("Page offset must not be negative and limit must be positive");
+        }
+        existenceIndex.requireDirector(directorId);
+        return filmStorage.getFilmsByIds(directorFilmography.getFilmIds(directorId, sortBy, offset, limit));
     }
 
     public Film getFilmById(int id) {
@@ -31,61 +79,180 @@ public class FilmService {
     }
 
     public Film addFilm(Film film) {
-        return filmStorage.addFilm(film);
+        Film newFilm = filmStorage.addFilm(film);
+        existenceIndex.filmAdded(newFilm.getId());
+        popularityLeaderboard.addFilm(newFilm);
+        filmSearchIndex.putFilm(newFilm);
+        directorFilmography.addFilm(newFilm);
+        return newFilm;
+    }
+
+    /**
+     * Проверяет все фильмы пакета и добавляет их порциями, каждая порция — отдельная транзакция.
+     */
+    public BatchResult addFilms(List<Film> films) {
+        for (int i = 0; i < films.size(); i++) {
+            validateBatchItem(i, films.get(i));
+        }
+        List<Integer> ids = new ArrayList<>(films.size());
+        for (int from = 0; from < films.size(); from += BATCH_CHUNK_SIZE) {
+            List<Film> chunk = filmStorage.addFilms(films.subList(from, Math.min(from + BATCH_CHUNK_SIZE, films.size())));
+            for (Film film : chunk) {
+                existenceIndex.filmAdded(film.getId());
+                popularityLeaderboard.addFilm(film);
+                filmSearchIndex.putFilm(film);
+                directorFilmography.addFilm(film);
+                ids.add(film.getId());
+            }
+        }
+        return new BatchResult(ids.size(), ids);
     }
 
     public Film deleteFilm(int id) {
-        return filmStorage.deleteFilm(id);
+        List<Integer> reviewIds = reviewStorage.getReviewIdsByFilm(id);
+        Film film = filmStorage.deleteFilm(id);
+        existenceIndex.filmRemoved(id);
+        existenceIndex.reviewsRemoved(reviewIds);
+        popularityLeaderboard.removeFilm(id);
+        filmSearchIndex.removeFilm(id);
+        directorFilmography.removeFilm(id);
+        likeSetStore.removeFilm(id);
+        filmSimilarityIndex.removeFilm(id);
+        return film;
     }
 
     public Film updateFilm(Film film) {
-        return filmStorage.updateFilm(film);
+        Film updatedFilm = filmStorage.updateFilm(film);
+        popularityLeaderboard.updateFilm(updatedFilm);
+        filmSearchIndex.putFilm(updatedFilm);
+        directorFilmography.updateFilm(updatedFilm);
+        return updatedFilm;
     }
 
     public void addLike(int userId, int filmId) {
-        filmStorage.addLike(userId, filmId);
-        eventStorage.addEvent(filmId, EventType.LIKE, EventOperation.ADD, userId);
+        existenceIndex.requireFilm(filmId);
+        existenceIndex.requireUser(userId);
+        if (filmStorage.addLike(userId, filmId)) {
+            popularityLeaderboard.changeLikes(filmId, 1);
+            directorFilmography.changeLikes(filmId, 1);
+            likeSetStore.addLike(userId, filmId);
+            recommendationService.markStale(userId);
+            filmSimilarityIndex.likeChanged(filmId);
+            eventStorage.addEvent(filmId, EventType.LIKE, EventOperation.ADD, userId);
+        }
     }
 
     public void deleteLike(int userId, int filmId) {
-        filmStorage.deleteLike(userId, filmId);
-        eventStorage.addEvent(filmId, EventType.LIKE, EventOperation.REMOVE, userId);
-    }
-
-    public List<Film> getTopFilms(int count, Integer genreId, Integer year) {
-        if (genreId == null && year == null) {
-            return topFilms(count);
-        }
-        if (genreId == null) {
-            return topFilmsByYear(count, year);
+        existenceIndex.requireFilm(filmId);
+        existenceIndex.requireUser(userId);
+        if (filmStorage.deleteLike(userId, filmId)) {
+            popularityLeaderboard.changeLikes(filmId, -1);
+            directorFilmography.changeLikes(filmId, -1);
+            likeSetStore.deleteLike(userId, filmId);
+            recommendationService.markStale(userId);
+            filmSimilarityIndex.likeChanged(filmId);
+            eventStorage.addEvent(filmId, EventType.LIKE, EventOperation.REMOVE, userId);
         }
-        if (year == null) {
-            return topFilmsByGenre(count, genreId);
-        }
-        return topFilmsByYearAndGenre(count, year, genreId);
     }
 
-    private List<Film> topFilms(int count) {
-        return filmStorage.topFilms(count);
+    public List<Film> getTopFilms(int count, Integer genreId, Integer year) {
+        return filmStorage.getFilmsByIds(popularityLeaderboard.top(count, genreId, year));
     }
 
-    public List<Film> searchFilms(String query, String by) {
-        return filmStorage.searchFilms(query, by);
+    public List<Film> searchFilms(String query, String by, int offset, int limit) {
+        if (offset < 0 || limit <= 0) {
+            throw new ValidationException("Search offset must not be negative and limit must be positive");
+        }
+        boolean byTitle;
+        boolean byDirector;
+        switch (by) {
+            case "title":
+                byTitle = true;
+                byDirector = false;
+                break;
+            case "director":
+                byTitle = false;
+                byDirector = true;
+                break;
+            case "title,director":
+            case "director,title":
+                byTitle = true;
+                byDirector = true;
+                break;
+            default:
+                return new ArrayList<>();
+        }
+        return filmStorage.getFilmsByIds(filmSearchIndex.search(query, byTitle, byDirector, offset, limit));
     }
 
-    private List<Film> topFilmsByYear(int count, int year) {
-        return filmStorage.topFilmsByYear(count, year);
+    /**
+     * Похожие фильмы по совместным лайкам; при равной схожести выше фильмы
+     * с большим числом общих жанров и режиссёров, затем более популярные.
+     */
+    public List<Film> getSimilarFilms(int filmId, int count) {
+        if (count <= 0) {
+            throw new ValidationException("Similar films count must be positive");
+        }
+        existenceIndex.requireFilm(filmId);
+        FilmSimilarityIndex.Row row = filmSimilarityIndex.getNeighbours(filmId);
+        List<Integer> ids = new ArrayList<>(row.size() + 1);
+        Map<Integer, Float> scores = new HashMap<>();
+        ids.add(filmId);
+        for (int i = 0; i < row.size(); i++) {
+            ids.add(row.filmId(i));
+            scores.put(row.filmId(i), row.score(i));
+        }
+        List<Film> films = filmStorage.getFilmsByIds(ids);
+        if (films.isEmpty() || films.get(0).getId() != filmId) {
+            throw new FilmNotFoundException(String.format("Film id %d not found", filmId));
+        }
+        Film film = films.get(0);
+        Comparator<Film> byScore = Comparator.comparing(similar -> scores.get(similar.getId()));
+        Comparator<Film> byOverlap = Comparator.comparingLong(similar -> overlap(film, similar));
+        Comparator<Integer> byLikes = popularityLeaderboard.byLikes(ids);
+        return films.subList(1, films.size()).stream()
+                .sorted(byScore.reversed()
+                        .thenComparing(byOverlap.reversed())
+                        .thenComparing((a, b) -> byLikes.compare(a.getId(), b.getId())))
+                .limit(count)
+                .collect(Collectors.toList());
     }
 
-    private List<Film> topFilmsByGenre(int count, int genreId) {
-        return filmStorage.topFilmsByGenre(count, genreId);
+    public List<Film> getCommonFilms(int userId, int friendId) {
+        List<Integer> filmIds = likeSetStore.commonLikes(userId, friendId).stream()
+                .boxed()
+                .collect(Collectors.toList());
+        filmIds.sort(popularityLeaderboard.byLikes(filmIds));
+        return filmStorage.getFilmsByIds(filmIds);
     }
 
-    private List<Film> topFilmsByYearAndGenre(int count, int year, int genreId) {
-        return filmStorage.topFilmsByYearAndGenre(count, year, genreId);
+    private void validateBatchItem(int index, Film film) {
+        if (film == null) {
+            throw new ValidationException(String.format("Film #%d: must not be null", index));
+        }
+        Set<ConstraintViolation<Film>> violations = validator.validate(film);
+        if (!violations.isEmpty()) {
+            ConstraintViolation<Film> violation = violations.iterator().next();
+            throw new ValidationException(String.format("Film #%d: %s %s", index,
+                    violation.getPropertyPath(), violation.getMessage()));
+        }
+        if (film.getMpa() == null || referenceSnapshot.getRating(film.getMpa().getId()) == null) {
+            throw new ValidationException(String.format("Film #%d: unknown mpa", index));
+        }
+        for (Genre genre : film.getGenres()) {
+            if (referenceSnapshot.getGenre(genre.getId()) == null) {
+                throw new ValidationException(String.format("Film #%d: unknown genre %d", index, genre.getId()));
+            }
+        }
+        for (Director director : film.getDirectors()) {
+            if (referenceSnapshot.getDirector(director.getId()) == null) {
+                throw new ValidationException(String.format("Film #%d: unknown director %d", index, director.getId()));
+            }
+        }
     }
 
-    public List<Film> getCommonFilms(int userId, int friendId) {
-        return filmStorage.getCommonFilms(userId, friendId);
+    private static long overlap(Film film, Film other) {
+        return film.getGenres().stream().filter(other.getGenres()::contains).count()
+                + film.getDirectors().stream().filter(other.getDirectors()::contains).count();
     }
 }
@@ -0,0 +1,244 @@
+package ru.yandex.practicum.filmorate.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.RecommendationStatus;
+import ru.yandex.practicum.filmorate.storage.ExistenceIndex;
+import ru.yandex.practicum.filmorate.storage.film.FilmStorage;
+import ru.yandex.practicum.filmorate.storage.film.LikeSetStore;
+import ru.yandex.practicum.filmorate.storage.film.PopularityLeaderboard;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+
+/**
+ * Рекомендации фильмов по схожести пользователей (user-based collaborative filtering).
+ * Соседи — пользователи, лайкнувшие хотя бы один фильм из лайков пользователя;
+ * их схожесть по Жаккару считается параллельно, и K ближайших голосуют своим весом
+ * за фильмы, которые пользователь ещё не лайкал.
+ * <p>
+ * Готовые рекомендации хранятся в памяти. Пользователи, чьи лайки изменились, помечаются
+ * устаревшими и пересчитываются фоновой задачей на ограниченном пуле потоков; до пересчёта
+ * отдаётся прежний результат. Пользователь без готовых рекомендаций считается на месте.
+ */
+@Slf4j
+@Service
+public class RecommendationService {
+    private final ExistenceIndex existenceIndex;
+    private final FilmStorage filmStorage;
+    private final LikeSetStore likeSetStore;
+    private final PopularityLeaderboard popularityLeaderboard;
+    private final int neighbours;
+    private final int precomputedSize;
+    private final long refreshIntervalMs;
+    private final ThreadPoolExecutor workers;
+    private final Map<Integer, Entry> precomputed = new ConcurrentHashMap<>();
+    private final Map<Integer, Long> staleSince = new ConcurrentHashMap<>();
+    private final Set<Integer> scheduled = ConcurrentHashMap.newKeySet();
+    private final Counter refreshed;
+    private final Counter computedOnDemand;
+    private final Timer refreshTimer;
+    private ScheduledExecutorService refresher;
+
+    public RecommendationService(ExistenceIndex existenceIndex,
+                                 FilmStorage filmStorage,
+                                 LikeSetStore likeSetStore,
+                                 PopularityLeaderboard popularityLeaderboard,
+                                 MeterRegistry meterRegistry,
+                                 @Value("${filmorate.recommendations.neighbours:20}") int neighbours,
+                                 @Value("${filmorate.recommendations.precomputed-size:50}") int precomputedSize,
+                                 @Value("${filmorate.recommendations.refresh-interval-ms:1000}") long refreshIntervalMs,
+                                 @Value("${filmorate.recommendations.workers:2}") int workerCount,
+                                 @Value("${filmorate.recommendations.queue-capacity:1000}") int queueCapacity) {
+        this.existenceIndex = existenceIndex;
+        this.filmStorage = filmStorage;
+        this.likeSetStore = likeSetStore;
+        this.popularityLeaderboard = popularityLeaderboard;
+        this.neighbours = neighbours;
+        this.precomputedSize = precomputedSize;
+        this.refreshIntervalMs = refreshIntervalMs;
+        this.workers = new ThreadPoolExecutor(workerCount, workerCount, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), daemon("recommendation-worker"));
+        this.refreshed = meterRegistry.counter("filmorate.recommendations.refreshed");
+        this.computedOnDemand = meterRegistry.counter("filmorate.recommendations.on-demand");
+        this.refreshTimer = meterRegistry.timer("filmorate.recommendations.refresh.time");
+        Gauge.builder("filmorate.recommendations.stale", staleSince, Map::size).register(meterRegistry);
+        Gauge.builder("filmorate.recommendations.queue", workers, pool -> pool.getQueue().size())
+                .register(meterRegistry);
+        Gauge.builder("filmorate.recommendations.active", workers, ThreadPoolExecutor::getActiveCount)
+                .register(meterRegistry);
+        Gauge.builder("filmorate.recommendations.stored", precomputed, Map::size).register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        refresher = Executors.newSingleThreadScheduledExecutor(daemon("recommendation-refresher"));
+        refresher.scheduleWithFixedDelay(this::scheduleStale, refreshIntervalMs, refreshIntervalMs,
+                TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        refresher.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    public List<Film> getRecommendations(int userId, int count) {
+        existenceIndex.requireUser(userId);
+        return filmStorage.getFilmsByIds(getRecommendedIds(userId, count));
+    }
+
+    public RecommendationStatus getStatus(int userId) {
+        existenceIndex.requireUser(userId);
+        Entry entry = precomputed.get(userId);
+        Long since = staleSince.get(userId);
+        boolean stale = since != null || scheduled.contains(userId);
+        return new RecommendationStatus(userId, entry != null, entry == null ? null : entry.computedAt,
+                stale, since, entry == null ? 0 : entry.filmIds.length);
+    }
+
+    /**
+     * Помечает рекомендации пользователя устаревшими после изменения его лайков.
+     */
+    public void markStale(int userId) {
+        staleSince.putIfAbsent(userId, System.currentTimeMillis());
+    }
+
+    public void removeUser(int userId) {
+        staleSince.remove(userId);
+        precomputed.remove(userId);
+    }
+
+    /**
+     * Возвращает до count id фильмов по убыванию суммарного веса соседей,
+     * при равенстве — по популярности.
+     */
+    public List<Integer> recommend(int userId, int count) {
+        RoaringBitmap liked = likeSetStore.getLikes(userId);
+        if (liked.isEmpty()) {
+            return new ArrayList<>();
+        }
+        RoaringBitmap candidates = new RoaringBitmap();
+        liked.forEach((int filmId) -> candidates.or(likeSetStore.getLikers(filmId)));
+        candidates.remove(userId);
+
+        int likedCount = liked.getCardinality();
+        List<Neighbour> nearest = candidates.stream()
+                .parallel()
+                .mapToObj(otherId -> {
+                    RoaringBitmap other = likeSetStore.getLikes(otherId);
+                    int common = RoaringBitmap.andCardinality(liked, other);
+                    double similarity = (double) common / (likedCount + other.getCardinality() - common);
+                    return new Neighbour(other, similarity);
+                })
+                .filter(neighbour -> neighbour.similarity > 0)
+                .sorted(Comparator.comparingDouble(Neighbour::getSimilarity).reversed())
+                .limit(neighbours)
+                .collect(Collectors.toList());
+
+        Map<Integer, Double> scores = new HashMap<>();
+        for (Neighbour neighbour : nearest) {
+            RoaringBitmap.andNot(neighbour.likes, liked)
+                    .forEach((int filmId) -> scores.merge(filmId, neighbour.similarity, Double::sum));
+        }
+        Comparator<Integer> byScore = Comparator.comparingDouble(scores::get);
+        return scores.keySet().stream()
+                .sorted(byScore.reversed().thenComparing(popularityLeaderboard.byLikes(scores.keySet())))
+                .limit(count)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Отдаёт не больше precomputed-size рекомендаций из готового списка: запрос большего
+     * числа обрезается, а не пересчитывается в потоке запроса.
+     */
+    private List<Integer> getRecommendedIds(int userId, int count) {
+        Entry entry = precomputed.get(userId);
+        if (entry == null) {
+            computedOnDemand.increment();
+            entry = refresh(userId);
+        }
+        return Arrays.stream(entry.filmIds).limit(Math.min(count, precomputedSize)).boxed()
+                .collect(Collectors.toList());
+    }
+
+    private void scheduleStale() {
+        try {
+            for (Integer userId : staleSince.keySet()) {
+                if (workers.getQueue().remainingCapacity() == 0) {
+                    break;
+                }
+                if (scheduled.add(userId)) {
+                    workers.execute(() -> {
+                        try {
+                            refresh(userId);
+                        } finally {
+                            scheduled.remove(userId);
+                        }
+                    });
+                }
+            }
+        } catch (RuntimeException e) {
+            log.error("Recommendation refresh scheduling failed", e);
+        }
+    }
+
+    private Entry refresh(int userId) {
+        Long since = staleSince.remove(userId);
+        try {
+            Entry entry = refreshTimer.record(() -> new Entry(
+                    recommend(userId, precomputedSize).stream().mapToInt(Integer::intValue).toArray(),
+                    System.currentTimeMillis()));
+            precomputed.put(userId, entry);
+            refreshed.increment();
+            return entry;
+        } catch (RuntimeException e) {
+            if (since != null) {
+                staleSince.putIfAbsent(userId, since);
+            }
+            throw e;
+        }
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static final class Entry {
+        private final int[] filmIds;
+        private final long computedAt;
+
+        private Entry(int[] filmIds, long computedAt) {
+            this.filmIds = filmIds;
+            this.computedAt = computedAt;
+        }
+    }
+
+    private static final class Neighbour {
+        private final RoaringBitmap likes;
+        private final double similarity;
+
+        private Neighbour(RoaringBitmap likes, double similarity) {
+            this.likes = likes;
+            this.similarity = similarity;
+        }
+
+        private double getSimilarity() {
+            return similarity;
+        }
+    }
+}
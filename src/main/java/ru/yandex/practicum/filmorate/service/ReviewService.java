@@ -6,6 +6,7 @@ import ru.yandex.practicum.filmorate.model.enums.EventOperation;
 import ru.yandex.practicum.filmorate.model.enums.EventType;
 import ru.yandex.practicum.filmorate.model.Review;
 import ru.yandex.practicum.filmorate.storage.EventStorage;
+import ru.yandex.practicum.filmorate.storage.ExistenceIndex;
 import ru.yandex.practicum.filmorate.storage.review.ReviewStorage;
 
 import java.util.List;
@@ -15,14 +16,19 @@ import java.util.List;
 public class ReviewService {
     private final ReviewStorage reviewStorage;
     private final EventStorage eventStorage;
+    private final ExistenceIndex existenceIndex;
 
     public Review addReview(Review review) {
+        existenceIndex.requireFilm(review.getFilmId());
+        existenceIndex.requireUser(review.getUserId());
         Review newReview = reviewStorage.addReview(review);
+        existenceIndex.reviewAdded(newReview.getReviewId());
         eventStorage.addEvent(newReview.getReviewId(), EventType.REVIEW, EventOperation.ADD, newReview.getUserId());
         return newReview;
     }
 
     public Review updateReview(Review review) {
+        existenceIndex.requireReview(review.getReviewId());
         Review updatedReview = reviewStorage.updateReview(review);
         eventStorage.addEvent(updatedReview.getReviewId(), EventType.REVIEW, EventOperation.UPDATE, updatedReview.getUserId());
         return updatedReview;
@@ -32,6 +38,7 @@ public class ReviewService {
         Review review = reviewStorage.getReviewById(id);
         eventStorage.addEvent(review.getReviewId(), EventType.REVIEW, EventOperation.REMOVE, review.getUserId());
         reviewStorage.deleteReview(id);
+        existenceIndex.reviewRemoved(id);
     }
 
     public List<Review> getReviewListWithParam(int filmId, int count) {
@@ -1,38 +1,120 @@
 package ru.yandex.practicum.filmorate.service;
 
 import lombok.AllArgsConstructor;
+import org.roaringbitmap.RoaringBitmap;
 import org.springframework.stereotype.Service;
-import org.springframework.web.bind.annotation.PathVariable;
+import ru.yandex.practicum.filmorate.exceptions.ValidationException;
+import ru.yandex.practicum.filmorate.model.BatchConflict;
 import ru.yandex.practicum.filmorate.model.enums.EventOperation;
 import ru.yandex.practicum.filmorate.model.enums.EventType;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.RecommendationStatus;
 import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.model.UserBatchResult;
 import ru.yandex.practicum.filmorate.storage.EventStorage;
+import ru.yandex.practicum.filmorate.storage.ExistenceIndex;
+import ru.yandex.practicum.filmorate.storage.FriendTimelines;
+import ru.yandex.practicum.filmorate.storage.film.DirectorFilmography;
+import ru.yandex.practicum.filmorate.storage.film.FilmCache;
+import ru.yandex.practicum.filmorate.storage.film.FilmSimilarityIndex;
+import ru.yandex.practicum.filmorate.storage.film.LikeSetStore;
+import ru.yandex.practicum.filmorate.storage.film.PopularityLeaderboard;
+import ru.yandex.practicum.filmorate.storage.review.ReviewStorage;
+import ru.yandex.practicum.filmorate.storage.user.FriendshipGraph;
 import ru.yandex.practicum.filmorate.storage.user.UserStorage;
 
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 @Service
 @AllArgsConstructor
 public class UserService {
+    private static final int BATCH_CHUNK_SIZE = 500;
+
     private final UserStorage userStorage;
     private final EventStorage eventStorage;
+    private final LikeSetStore likeSetStore;
+    private final PopularityLeaderboard popularityLeaderboard;
+    private final RecommendationService recommendationService;
+    private final FilmSimilarityIndex filmSimilarityIndex;
+    private final FilmCache filmCache;
+    private final DirectorFilmography directorFilmography;
+    private final Validator validator;
+    private final FriendTimelines friendTimelines;
+    private final ExistenceIndex existenceIndex;
+    private final FriendshipGraph friendshipGraph;
+    private final ReviewStorage reviewStorage;
 
     public List<User> getListAllUsers() {
         return userStorage.getListAllUsers();
     }
 
+    public List<User> getUsersPage(int afterId, int limit) {
+        if (limit <= 0) {
+            throw new ValidationException("Page limit must be positive");
+        }
+        return userStorage.getUsersPage(afterId, limit);
+    }
+
+    public void streamAllUsers(Consumer<User> consumer) {
+        userStorage.streamAllUsers(consumer);
+    }
+
     public User getUserById(int userId) {
         return userStorage.getUserById(userId);
     }
 
     public User addUser(User user) {
-        return userStorage.addUser(user);
+        User newUser = userStorage.addUser(user);
+        existenceIndex.userAdded(newUser.getId());
+        return newUser;
+    }
+
+    public UserBatchResult addUsers(List<User> users) {
+        for (int i = 0; i < users.size(); i++) {
+            validateBatchItem(i, users.get(i));
+        }
+        List<Integer> ids = new ArrayList<>(users.size());
+        List<BatchConflict> conflicts = new ArrayList<>();
+        for (int from = 0; from < users.size(); from += BATCH_CHUNK_SIZE) {
+            List<User> chunk = users.subList(from, Math.min(from + BATCH_CHUNK_SIZE, users.size()));
+            UserBatchResult result = userStorage.addUsers(chunk);
+            for (BatchConflict conflict : result.getConflicts()) {
+                conflict.setIndex(from + conflict.getIndex());
+                conflicts.add(conflict);
+            }
+            for (int id : result.getIds()) {
+                existenceIndex.userAdded(id);
+                ids.add(id);
+            }
+        }
+        return new UserBatchResult(ids.size(), ids, conflicts);
     }
 
     public User deleteUser(int id) {
-        return userStorage.deleteUser(id);
+        List<Integer> reviewIds = reviewStorage.getReviewIdsByUser(id);
+        User user = userStorage.deleteUser(id);
+        existenceIndex.userRemoved(id);
+        existenceIndex.reviewsRemoved(reviewIds);
+        RoaringBitmap likedFilms = likeSetStore.removeUser(id);
+        likedFilms.forEach((int filmId) -> {
+            popularityLeaderboard.changeLikes(filmId, -1);
+            directorFilmography.changeLikes(filmId, -1);
+            filmCache.invalidate(filmId);
+        });
+        filmSimilarityIndex.userRemoved(likedFilms);
+        recommendationService.removeUser(id);
+        friendTimelines.removeUser(id);
+        friendshipGraph.removeUser(id);
+        return user;
     }
 
     public User updateUser(User user) {
@@ -40,26 +122,66 @@ public class UserService {
     }
 
     public void addFriend(int id1, int id2) {
+        existenceIndex.requireUser(id1);
+        existenceIndex.requireUser(id2);
         userStorage.addFriend(id1, id2);
+        friendshipGraph.addFriend(id1, id2);
         eventStorage.addEvent(id2, EventType.FRIEND, EventOperation.ADD, id1);
     }
 
     public void deleteFriend(int id1, int id2) {
+        existenceIndex.requireUser(id1);
+        existenceIndex.requireUser(id2);
         userStorage.deleteFriend(id1, id2);
+        friendshipGraph.removeFriend(id1, id2);
         eventStorage.addEvent(id2, EventType.FRIEND, EventOperation.REMOVE, id1);
     }
 
     public List<User> listAllFriends(int id) {
-        return userStorage.listAllFriends(id);
+        existenceIndex.requireUser(id);
+        return userStorage.getUsersByIds(friendshipGraph.getFriendIds(id));
     }
 
     public List<User> commonFriends(int id0, int id1) {
-        return userStorage.getUserById(id0).getFriendsList().stream()
-                .filter(userStorage.getUserById(id1).getFriendsList()::contains).filter(i -> i != 0)
-                .map(userStorage::getUserById).distinct().collect(Collectors.toList());
+        existenceIndex.requireUser(id0);
+        existenceIndex.requireUser(id1);
+        return userStorage.getUsersByIds(friendshipGraph.getCommonFriendIds(id0, id1));
+    }
+
+    /**
+     * Возможные друзья: друзья друзей по убыванию числа общих друзей.
+     */
+    public List<User> getSuggestions(int id, int count) {
+        if (count <= 0) {
+            throw new ValidationException("Suggestions count must be positive");
+        }
+        existenceIndex.requireUser(id);
+        List<Integer> ids = friendshipGraph.suggest(id, count);
+        Map<Integer, User> users = userStorage.getUsersByIds(ids).stream()
+                .collect(Collectors.toMap(User::getId, Function.identity()));
+        return ids.stream().map(users::get).filter(Objects::nonNull).collect(Collectors.toList());
+    }
+
+    public List<Film> getRecommendations(int id, int count) {
+        if (count <= 0) {
+            throw new ValidationException("Recommendations count must be positive");
+        }
+        return recommendationService.getRecommendations(id, count);
+    }
+
+    public RecommendationStatus getRecommendationStatus(int id) {
+        return recommendationService.getStatus(id);
     }
 
-    public List<Film> getRecommendations(@PathVariable int id) {
-        return userStorage.getRecommendations(id);
+    private void validateBatchItem(int index, User user) {
+        if (user == null) {
+            throw new ValidationException(String.format("User #%d: must not be null", index));
+        }
+        Set<ConstraintViolation<User>> violations = validator.validate(user);
+        if (!violations.isEmpty()) {
+            ConstraintViolation<User> violation = violations.iterator().next();
+            throw new ValidationException(String.format("User #%d: %s %s", index,
+                    violation.getPropertyPath(), violation.getMessage()));
+        }
     }
 }
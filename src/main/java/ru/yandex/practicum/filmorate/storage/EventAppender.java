@@ -0,0 +1,317 @@
+package ru.yandex.practicum.filmorate.storage;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.exceptions.UserNotFoundException;
+import ru.yandex.practicum.filmorate.model.Event;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Асинхронная запись событий ленты. Потоки запросов кладут событие в ограниченное кольцо
+ * без блокировок, единственный поток-писатель забирает накопившиеся события и вставляет их
+ * многострочным insert. В режиме FLUSH вызывающий ждёт, пока пакет с его событием будет записан;
+ * в режиме FIRE_AND_FORGET — нет, и событие может появиться в ленте с небольшой задержкой.
+ * Если кольцо заполнено, вызывающий ждёт освобождения места, а по истечении таймаута пишет
+ * событие сам. При остановке приложения кольцо дописывается до конца.
+ */
+@Slf4j
+@Component
+public class EventAppender {
+    private static final long BACKOFF_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final JdbcTemplate jdbcTemplate;
+    private final FeedHub feedHub;
+    private final FriendTimelines friendTimelines;
+    private final boolean enabled;
+    private final Durability durability;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final long offerTimeoutNanos;
+    private final Ring ring;
+    private final Counter appended;
+    private final Counter overflow;
+    private final Counter failed;
+    private final Timer flushTimer;
+    private volatile boolean running;
+    private Thread writer;
+
+    public EventAppender(JdbcTemplate jdbcTemplate,
+                         FeedHub feedHub,
+                         FriendTimelines friendTimelines,
+                         MeterRegistry meterRegistry,
+                         @Value("${filmorate.events.async.enabled:false}") boolean enabled,
+                         @Value("${filmorate.events.async.durability:flush}") Durability durability,
+                         @Value("${filmorate.events.async.buffer-size:8192}") int bufferSize,
+                         @Value("${filmorate.events.async.batch-size:500}") int batchSize,
+                         @Value("${filmorate.events.async.flush-interval-ms:5}") long flushIntervalMs,
+                         @Value("${filmorate.events.async.offer-timeout-ms:100}") long offerTimeoutMs) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.feedHub = feedHub;
+        this.friendTimelines = friendTimelines;
+        this.enabled = enabled;
+        this.durability = durability;
+        this.batchSize = batchSize;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+        this.offerTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(offerTimeoutMs);
+        this.ring = new Ring(bufferSize);
+        this.appended = meterRegistry.counter("filmorate.events.appended");
+        this.overflow = meterRegistry.counter("filmorate.events.overflow");
+        this.failed = meterRegistry.counter("filmorate.events.failed");
+        this.flushTimer = meterRegistry.timer("filmorate.events.flush.time");
+        Gauge.builder("filmorate.events.queue", ring, Ring::size).register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        running = true;
+        writer = new Thread(this::drainLoop, "event-appender");
+        writer.setDaemon(true);
+        writer.start();
+        log.info("Async event appender enabled: {} mode, buffer {}, batch {}", durability, ring.capacity, batchSize);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (writer == null) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(writer);
+        writer.join(TimeUnit.SECONDS.toMillis(10));
+        if (!writer.isAlive()) {
+            List<Pending> rest = new ArrayList<>();
+            for (Pending pending = ring.poll(); pending != null; pending = ring.poll()) {
+                rest.add(pending);
+            }
+            if (!rest.isEmpty()) {
+                write(rest);
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Ставит событие в очередь на запись. В режиме FLUSH возвращает событие с присвоенным id.
+     */
+    public Event append(Event event) {
+        Pending pending = new Pending(event, durability == Durability.FLUSH ? new CompletableFuture<>() : null);
+        enqueue(pending);
+        appended.increment();
+        if (pending.done == null) {
+            return event;
+        }
+        try {
+            return pending.done.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private void enqueue(Pending pending) {
+        long deadline = System.nanoTime() + offerTimeoutNanos;
+        while (!ring.offer(pending)) {
+            if (!running || System.nanoTime() >= deadline) {
+                overflow.increment();
+                write(Collections.singletonList(pending));
+                return;
+            }
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(this, BACKOFF_NANOS);
+        }
+        if (pending.done != null) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    private void drainLoop() {
+        List<Pending> batch = new ArrayList<>(batchSize);
+        while (true) {
+            Pending pending;
+            while (batch.size() < batchSize && (pending = ring.poll()) != null) {
+                batch.add(pending);
+            }
+            if (!batch.isEmpty()) {
+                write(batch);
+                batch.clear();
+            } else if (!running) {
+                if (ring.size() == 0) {
+                    return;
+                }
+                Thread.onSpinWait();
+            } else {
+                LockSupport.parkNanos(this, flushIntervalNanos);
+            }
+        }
+    }
+
+    private void write(List<Pending> batch) {
+        long started = System.nanoTime();
+        List<Pending> inserted = batch;
+        try {
+            insert(batch);
+        } catch (RuntimeException e) {
+            inserted = new ArrayList<>(batch.size());
+            for (Pending pending : batch) {
+                try {
+                    insert(Collections.singletonList(pending));
+                    inserted.add(pending);
+                } catch (DataIntegrityViolationException violation) {
+                    failed.increment();
+                    pending.fail(new UserNotFoundException(String.format("User by id %d not found",
+                            pending.event.getUserId())));
+                } catch (RuntimeException single) {
+                    failed.increment();
+                    log.error("Event {} was not written", pending.event, single);
+                    pending.fail(single);
+                }
+            }
+        } finally {
+            flushTimer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        }
+        inserted.forEach(this::written);
+    }
+
+    /**
+     * Событие уже в базе: сбой раздачи не должен ни повторять вставку, ни отменять запись.
+     */
+    private void written(Pending pending) {
+        try {
+            feedHub.publish(pending.event);
+            friendTimelines.fanOut(pending.event);
+        } catch (RuntimeException e) {
+            log.error("Event {} was written but not delivered to feeds", pending.event, e);
+        }
+        pending.complete();
+    }
+
+    private void insert(List<Pending> batch) {
+        String sql = "insert into events (user_id, event_type_id, event_operation_id, entity_id, event_timestamp) " +
+                "values " + String.join(", ", Collections.nCopies(batch.size(), "(?, ?, ?, ?, ?)"));
+        jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+            try (PreparedStatement stmt = connection.prepareStatement(sql, new String[]{"event_id"})) {
+                int index = 1;
+                for (Pending pending : batch) {
+                    Event event = pending.event;
+                    stmt.setInt(index++, event.getUserId());
+                    stmt.setInt(index++, EventStorage.eventTypeToId(event.getEventType()));
+                    stmt.setInt(index++, EventStorage.eventOperationToId(event.getOperation()));
+                    stmt.setInt(index++, event.getEntityId());
+                    stmt.setLong(index++, event.getTimestamp());
+                }
+                stmt.executeUpdate();
+                try (ResultSet keys = stmt.getGeneratedKeys()) {
+                    for (Pending pending : batch) {
+                        if (!keys.next()) {
+                            throw new IllegalStateException("Generated event ids are missing");
+                        }
+                        pending.event.setEventId(keys.getInt(1));
+                    }
+                }
+            }
+            return null;
+        });
+    }
+
+    public enum Durability {
+        FIRE_AND_FORGET,
+        FLUSH
+    }
+
+    private static final class Pending {
+        private final Event event;
+        private final CompletableFuture<Event> done;
+
+        private Pending(Event event, CompletableFuture<Event> done) {
+            this.event = event;
+            this.done = done;
+        }
+
+        private void complete() {
+            if (done != null) {
+                done.complete(event);
+            }
+        }
+
+        private void fail(RuntimeException e) {
+            if (done != null) {
+                done.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * Кольцо для многих писателей и одного читателя: писатель занимает ячейку CAS-ом хвоста,
+     * читатель освобождает ячейку до сдвига головы, поэтому занятая писателем ячейка всегда пуста.
+     */
+    private static final class Ring {
+        private final int capacity;
+        private final int mask;
+        private final AtomicReferenceArray<Pending> slots;
+        private final AtomicLong tail = new AtomicLong();
+        private volatile long head;
+
+        private Ring(int requested) {
+            capacity = Integer.highestOneBit(Math.max(requested - 1, 1)) << 1;
+            mask = capacity - 1;
+            slots = new AtomicReferenceArray<>(capacity);
+        }
+
+        private boolean offer(Pending pending) {
+            long claimed;
+            do {
+                claimed = tail.get();
+                if (claimed - head >= capacity) {
+                    return false;
+                }
+            } while (!tail.compareAndSet(claimed, claimed + 1));
+            slots.set((int) claimed & mask, pending);
+            return true;
+        }
+
+        private Pending poll() {
+            long current = head;
+            int index = (int) current & mask;
+            Pending pending = slots.get(index);
+            if (pending == null) {
+                return null;
+            }
+            slots.set(index, null);
+            head = current + 1;
+            return pending;
+        }
+
+        private int size() {
+            return (int) (tail.get() - head);
+        }
+    }
+}
@@ -3,7 +3,6 @@ package ru.yandex.practicum.filmorate.storage;
 import lombok.AllArgsConstructor;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.dao.DataIntegrityViolationException;
-import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
@@ -18,6 +17,7 @@ import ru.yandex.practicum.filmorate.model.enums.EventType;
 import java.sql.PreparedStatement;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 
@@ -26,11 +26,17 @@ import java.util.Objects;
 @AllArgsConstructor
 public class EventStorage {
     private final JdbcTemplate jdbcTemplate;
+    private final EventAppender eventAppender;
+    private final FeedHub feedHub;
+    private final FriendTimelines friendTimelines;
 
     public Event addEvent(int entityId, EventType eventType, EventOperation operation, int userId) {
         String sql = "insert into events (user_id, event_type_id, event_operation_id, entity_id, event_timestamp)" +
                     "values (?, ?, ?, ?, ?)";
         Event event = new Event(0, entityId, eventType, operation, userId, Instant.now().toEpochMilli());
+        if (eventAppender.isEnabled()) {
+            return eventAppender.append(event);
+        }
         try {
             KeyHolder keyHolder = new GeneratedKeyHolder();
             jdbcTemplate.update(connection -> {
@@ -44,7 +50,8 @@ public class EventStorage {
             }, keyHolder);
 
             event.setEventId(Objects.requireNonNull(keyHolder.getKey()).intValue());
-
+            feedHub.publish(event);
+            friendTimelines.fanOut(event);
             return event;
         } catch (DataIntegrityViolationException e) {
             throw new UserNotFoundException(String.format("User by id %d not found", event.getUserId()));
@@ -52,35 +59,67 @@ public class EventStorage {
     }
 
     public List<Event> getAllEvents(int id) {
-        try {
-            String sql = "select event_id, user_id, et.event_type_id, " +
-                    "eo.event_operation_id, entity_id, event_timestamp " +
-                    "from events e " +
-                    "join event_types et on e.event_type_id = et.event_type_id " +
-                    "join event_operations eo on e.event_operation_id = eo.event_operation_id " +
-                    "where user_id = ?;";
-            return jdbcTemplate.queryForObject(sql, eventRowMapper(), id);
-        } catch (EmptyResultDataAccessException e) {
+        return jdbcTemplate.query("select event_id, user_id, event_type_id, event_operation_id, entity_id, " +
+                "event_timestamp from events where user_id = ? order by event_id", eventRowMapper(), id);
+    }
+
+    /**
+     * Страница ленты пользователя от новых событий к старым: события с id меньше before.
+     * Читается по индексу (user_id, event_id) без сортировки и без сканирования пропущенных строк.
+     */
+    public List<Event> getEventsPage(int id, int before, int limit) {
+        return jdbcTemplate.query("select event_id, user_id, event_type_id, event_operation_id, entity_id, " +
+                        "event_timestamp from events where user_id = ? and event_id < ? " +
+                        "order by event_id desc limit ?", eventRowMapper(), id, before, limit);
+    }
+
+    /**
+     * До limit событий пользователя новее afterId в порядке записи.
+     */
+    public List<Event> getEventsAfter(int id, int afterId, int limit) {
+        return jdbcTemplate.query("select event_id, user_id, event_type_id, event_operation_id, entity_id, " +
+                        "event_timestamp from events where user_id = ? and event_id > ? " +
+                        "order by event_id limit ?", eventRowMapper(), id, afterId, limit);
+    }
+
+    /**
+     * События по списку id в произвольном порядке; отсутствующие id пропускаются.
+     */
+    public List<Event> getEventsByIds(List<Integer> ids) {
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return jdbcTemplate.query("select event_id, user_id, event_type_id, event_operation_id, entity_id, " +
+                "event_timestamp from events where event_id in (" +
+                String.join(", ", Collections.nCopies(ids.size(), "?")) + ")", eventRowMapper(), ids.toArray());
+    }
+
+    /**
+     * До limit последних событий нескольких пользователей с id меньше before, от новых к старым.
+     */
+    public List<Event> getEventsOfUsers(List<Integer> userIds, int before, int limit) {
+        if (userIds.isEmpty()) {
             return new ArrayList<>();
         }
+        List<Object> args = new ArrayList<>(userIds);
+        args.add(before);
+        args.add(limit);
+        return jdbcTemplate.query("select event_id, user_id, event_type_id, event_operation_id, entity_id, " +
+                "event_timestamp from events where user_id in (" +
+                String.join(", ", Collections.nCopies(userIds.size(), "?")) + ") and event_id < ? " +
+                "order by event_id desc limit ?", eventRowMapper(), args.toArray());
     }
 
-    private RowMapper<List<Event>> eventRowMapper() {
-        return (rs, rowNum) -> {
-            List<Event> events = new ArrayList<>();
-            do {
-                events.add(new Event(rs.getInt("event_id"),
-                        rs.getInt("entity_id"),
-                        eventIdToType(rs.getInt("event_type_id")),
-                        eventIdToOperation(rs.getInt("event_operation_id")),
-                        rs.getInt("user_id"),
-                        rs.getLong("event_timestamp")));
-            } while (rs.next());
-            return events;
-        };
+    private RowMapper<Event> eventRowMapper() {
+        return (rs, rowNum) -> new Event(rs.getInt("event_id"),
+                rs.getInt("entity_id"),
+                eventIdToType(rs.getInt("event_type_id")),
+                eventIdToOperation(rs.getInt("event_operation_id")),
+                rs.getInt("user_id"),
+                rs.getLong("event_timestamp"));
     }
 
-    private int eventTypeToId(EventType type) {
+    static int eventTypeToId(EventType type) {
         switch (type) {
             case LIKE: return 1;
             case REVIEW: return 2;
@@ -89,7 +128,7 @@ public class EventStorage {
         }
     }
 
-    private EventType eventIdToType(int id) {
+    private static EventType eventIdToType(int id) {
         switch (id) {
             case 1: return EventType.LIKE;
             case 2: return EventType.REVIEW;
@@ -98,7 +137,7 @@ public class EventStorage {
         }
     }
 
-    private int eventOperationToId(EventOperation operation) {
+    static int eventOperationToId(EventOperation operation) {
         switch (operation) {
             case REMOVE: return 1;
             case ADD: return 2;
@@ -107,7 +146,7 @@ public class EventStorage {
         }
     }
 
-    private EventOperation eventIdToOperation(int id) {
+    private static EventOperation eventIdToOperation(int id) {
         switch (id) {
             case 1: return EventOperation.REMOVE;
             case 2: return EventOperation.ADD;
@@ -0,0 +1,216 @@
+package ru.yandex.practicum.filmorate.storage;
+
+import lombok.extern.slf4j.Slf4j;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.exceptions.DirectorNotFoundException;
+import ru.yandex.practicum.filmorate.exceptions.FilmNotFoundException;
+import ru.yandex.practicum.filmorate.exceptions.ReviewNotFoundException;
+import ru.yandex.practicum.filmorate.exceptions.UserNotFoundException;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Проверка существования пользователей, фильмов, отзывов и режиссёров без загрузки сущностей.
+ * Id хранятся в сжатых битовых картах, которые загружаются в фоне при старте; пока карта
+ * не загружена, проверка идёт запросом EXISTS по первичному ключу. Изменения, пришедшие
+ * во время загрузки, накапливаются и применяются поверх загруженной карты.
+ * Режиссёры проверяются по снимку справочника.
+ */
+@Slf4j
+@Component
+public class ExistenceIndex {
+    private final JdbcTemplate jdbcTemplate;
+    private final ReferenceSnapshot referenceSnapshot;
+    private final IdSet users = new IdSet("users", "user_id");
+    private final IdSet films = new IdSet("films", "film_id");
+    private final IdSet reviews = new IdSet("reviews", "review_id");
+    private final ExecutorService loader;
+
+    public ExistenceIndex(JdbcTemplate jdbcTemplate, ReferenceSnapshot referenceSnapshot) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.referenceSnapshot = referenceSnapshot;
+        this.loader = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "existence-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PostConstruct
+    public void load() {
+        users.reload();
+        films.reload();
+        reviews.reload();
+    }
+
+    @PreDestroy
+    public void stop() {
+        loader.shutdownNow();
+    }
+
+    public void requireUser(int id) {
+        if (!users.contains(id)) {
+            throw new UserNotFoundException(String.format("User id %d not found", id));
+        }
+    }
+
+    public void requireFilm(int id) {
+        if (!films.contains(id)) {
+            throw new FilmNotFoundException(String.format("Film id %d not found", id));
+        }
+    }
+
+    public boolean hasFilm(int id) {
+        return films.contains(id);
+    }
+
+    public void requireReview(int id) {
+        if (!reviews.contains(id)) {
+            throw new ReviewNotFoundException(String.format("Review id %d not found", id));
+        }
+    }
+
+    public void requireDirector(int id) {
+        if (referenceSnapshot.getDirector(id) == null) {
+            throw new DirectorNotFoundException("Режиссёр с идентификатором " +
+                    id + " не зарегистрирован!");
+        }
+    }
+
+    public void userAdded(int id) {
+        users.add(id);
+    }
+
+    public void userRemoved(int id) {
+        users.remove(id);
+    }
+
+    public void filmAdded(int id) {
+        films.add(id);
+    }
+
+    public void filmRemoved(int id) {
+        films.remove(id);
+    }
+
+    public void reviewAdded(int id) {
+        reviews.add(id);
+    }
+
+    public void reviewRemoved(int id) {
+        reviews.remove(id);
+    }
+
+    /**
+     * Убирает отзывы, удалённые каскадом вместе с пользователем или фильмом.
+     */
+    public void reviewsRemoved(List<Integer> ids) {
+        ids.forEach(reviews::remove);
+    }
+
+    private final class IdSet {
+        private final String table;
+        private final String column;
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        private RoaringBitmap ids = new RoaringBitmap();
+        private RoaringBitmap added;
+        private RoaringBitmap removed;
+        private boolean warm;
+        private int generation;
+
+        private IdSet(String table, String column) {
+            this.table = table;
+            this.column = column;
+        }
+
+        private boolean contains(int id) {
+            lock.readLock().lock();
+            try {
+                if (warm) {
+                    return ids.contains(id);
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+            return Boolean.TRUE.equals(jdbcTemplate.queryForObject("select exists(select 1 from " + table +
+                    " where " + column + " = ?)", Boolean.class, id));
+        }
+
+        private void add(int id) {
+            lock.writeLock().lock();
+            try {
+                if (warm) {
+                    ids.add(id);
+                } else {
+                    added.add(id);
+                    removed.remove(id);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        private void remove(int id) {
+            lock.writeLock().lock();
+            try {
+                if (warm) {
+                    ids.remove(id);
+                } else {
+                    removed.add(id);
+                    added.remove(id);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        private void reload() {
+            int current;
+            lock.writeLock().lock();
+            try {
+                warm = false;
+                added = new RoaringBitmap();
+                removed = new RoaringBitmap();
+                current = ++generation;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            loader.execute(() -> load(current));
+        }
+
+        private void load(int expected) {
+            try {
+                RoaringBitmap loaded = new RoaringBitmap();
+                jdbcTemplate.query("select " + column + " from " + table, rs -> {
+                    loaded.add(rs.getInt(1));
+                });
+                lock.writeLock().lock();
+                try {
+                    if (expected != generation) {
+                        return;
+                    }
+                    loaded.or(added);
+                    loaded.andNot(removed);
+                    loaded.runOptimize();
+                    ids = loaded;
+                    added = null;
+                    removed = null;
+                    warm = true;
+                } finally {
+                    lock.writeLock().unlock();
+                }
+                log.info("Existence index of {} loaded: {} ids", table, loaded.getCardinality());
+            } catch (RuntimeException e) {
+                log.error("Existence index of {} failed to load, falling back to EXISTS probes", table, e);
+            }
+        }
+    }
+}
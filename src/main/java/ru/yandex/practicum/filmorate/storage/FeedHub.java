@@ -0,0 +1,232 @@
+package ru.yandex.practicum.filmorate.storage;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import ru.yandex.practicum.filmorate.model.Event;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Живая лента событий по SSE. Для каждого пользователя хранится кольцо последних событий,
+ * по которому переподключившийся клиент догоняет ленту с Last-Event-ID без запроса к базе.
+ * Соединения не держат потоков: у каждого подписчика своя ограниченная очередь, которую
+ * по мере поступления событий вычитывает общий небольшой пул, сохраняя порядок событий.
+ * Если очередь медленного подписчика переполнена, событие для него отбрасывается.
+ */
+@Slf4j
+@Component
+public class FeedHub {
+    private static final Event HEARTBEAT = new Event(0, 0, null, null, 0, 0);
+
+    private final int historySize;
+    private final int subscriberBuffer;
+    private final long timeoutMs;
+    private final long heartbeatIntervalMs;
+    private final Map<Integer, Channel> channels = new ConcurrentHashMap<>();
+    private final AtomicInteger subscribers = new AtomicInteger();
+    private final Counter dropped;
+    private final Counter published;
+    private final ExecutorService dispatcher;
+    private ScheduledExecutorService heartbeat;
+
+    public FeedHub(MeterRegistry meterRegistry,
+                   @Value("${filmorate.feed.stream.history-size:100}") int historySize,
+                   @Value("${filmorate.feed.stream.subscriber-buffer:256}") int subscriberBuffer,
+                   @Value("${filmorate.feed.stream.timeout-ms:1800000}") long timeoutMs,
+                   @Value("${filmorate.feed.stream.heartbeat-interval-ms:15000}") long heartbeatIntervalMs,
+                   @Value("${filmorate.feed.stream.dispatch-threads:4}") int dispatchThreads) {
+        this.historySize = historySize;
+        this.subscriberBuffer = subscriberBuffer;
+        this.timeoutMs = timeoutMs;
+        this.heartbeatIntervalMs = heartbeatIntervalMs;
+        this.dispatcher = Executors.newFixedThreadPool(dispatchThreads, daemon("feed-dispatcher"));
+        this.dropped = meterRegistry.counter("filmorate.feed.dropped");
+        this.published = meterRegistry.counter("filmorate.feed.published");
+        Gauge.builder("filmorate.feed.subscribers", subscribers, AtomicInteger::get).register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        heartbeat = Executors.newSingleThreadScheduledExecutor(daemon("feed-heartbeat"));
+        heartbeat.scheduleWithFixedDelay(this::sendHeartbeats, heartbeatIntervalMs, heartbeatIntervalMs,
+                TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        heartbeat.shutdownNow();
+        dispatcher.shutdownNow();
+        channels.values().forEach(channel -> channel.subscribers.forEach(subscriber -> subscriber.emitter.complete()));
+    }
+
+    /**
+     * Добавляет записанное событие в кольцо пользователя и рассылает его подписчикам.
+     */
+    public void publish(Event event) {
+        Channel channel = channels.computeIfAbsent(event.getUserId(), id -> new Channel());
+        synchronized (channel) {
+            channel.append(event);
+            for (Subscriber subscriber : channel.subscribers) {
+                subscriber.offer(event);
+            }
+        }
+        published.increment();
+    }
+
+    /**
+     * Хватит ли кольца, чтобы догнать ленту с события lastEventId без обращения к базе.
+     */
+    public boolean covers(int userId, int lastEventId) {
+        Channel channel = channels.get(userId);
+        return channel != null && lastEventId >= channel.floor;
+    }
+
+    /**
+     * Подписывает на ленту пользователя. Сначала отправляются события из backlog (прочитанные из базы),
+     * затем события из кольца новее lastEventId, затем новые события по мере публикации.
+     */
+    public SseEmitter subscribe(int userId, Integer lastEventId, List<Event> backlog) {
+        SseEmitter emitter = new SseEmitter(timeoutMs);
+        Channel channel = channels.computeIfAbsent(userId, id -> new Channel());
+        Subscriber subscriber = new Subscriber(emitter, channel);
+        synchronized (channel) {
+            int sent = lastEventId == null ? Integer.MAX_VALUE : lastEventId;
+            for (Event event : backlog) {
+                subscriber.offer(event);
+                sent = Math.max(sent, event.getEventId());
+            }
+            for (Event event : channel.after(sent)) {
+                subscriber.offer(event);
+            }
+            channel.subscribers.add(subscriber);
+        }
+        subscribers.incrementAndGet();
+        emitter.onCompletion(subscriber::unsubscribe);
+        emitter.onTimeout(subscriber::unsubscribe);
+        emitter.onError(e -> subscriber.unsubscribe());
+        return emitter;
+    }
+
+    private void sendHeartbeats() {
+        for (Channel channel : channels.values()) {
+            for (Subscriber subscriber : channel.subscribers) {
+                subscriber.offer(HEARTBEAT);
+            }
+        }
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private final class Channel {
+        private final Event[] recent = new Event[historySize];
+        private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+        private int start;
+        private int size;
+        private volatile int floor = Integer.MAX_VALUE;
+
+        private void append(Event event) {
+            if (historySize == 0) {
+                floor = event.getEventId();
+                return;
+            }
+            if (size == recent.length) {
+                floor = recent[start].getEventId();
+                recent[start] = event;
+                start = (start + 1) % recent.length;
+            } else {
+                recent[(start + size) % recent.length] = event;
+                size++;
+                if (floor == Integer.MAX_VALUE) {
+                    floor = event.getEventId() - 1;
+                }
+            }
+        }
+
+        private List<Event> after(int eventId) {
+            List<Event> events = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                Event event = recent[(start + i) % recent.length];
+                if (event.getEventId() > eventId) {
+                    events.add(event);
+                }
+            }
+            return events;
+        }
+    }
+
+    private final class Subscriber {
+        private final SseEmitter emitter;
+        private final Channel channel;
+        private final BlockingQueue<Event> queue = new ArrayBlockingQueue<>(subscriberBuffer);
+        private final AtomicBoolean draining = new AtomicBoolean();
+
+        private Subscriber(SseEmitter emitter, Channel channel) {
+            this.emitter = emitter;
+            this.channel = channel;
+        }
+
+        private void unsubscribe() {
+            if (channel.subscribers.remove(this)) {
+                subscribers.decrementAndGet();
+            }
+        }
+
+        private void offer(Event event) {
+            if (!queue.offer(event) && event != HEARTBEAT) {
+                dropped.increment();
+            }
+            if (draining.compareAndSet(false, true)) {
+                dispatcher.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            do {
+                try {
+                    for (Event event = queue.poll(); event != null; event = queue.poll()) {
+                        if (event == HEARTBEAT) {
+                            emitter.send(SseEmitter.event().comment("heartbeat"));
+                        } else {
+                            emitter.send(SseEmitter.event()
+                                    .id(String.valueOf(event.getEventId()))
+                                    .data(event, MediaType.APPLICATION_JSON));
+                        }
+                    }
+                } catch (IOException | IllegalStateException e) {
+                    log.debug("Feed subscriber disconnected: {}", e.getMessage());
+                    unsubscribe();
+                    queue.clear();
+                }
+                draining.set(false);
+            } while (!queue.isEmpty() && draining.compareAndSet(false, true));
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package ru.yandex.practicum.filmorate.storage;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.model.Event;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntPredicate;
+
+/**
+ * Ленты друзей с раздачей при записи: id каждого события автора добавляется в ограниченную
+ * ленту каждого его подписчика (пользователя, добавившего автора в друзья). Раздача идёт
+ * в фоновом потоке, ленты хранятся только в памяти. События авторов, у которых подписчиков
+ * больше порога, не раздаются: такие авторы запоминаются, и их события подмешиваются в ленту
+ * при чтении. Когда подписчиков становится вдвое меньше порога, автор возвращается к раздаче
+ * при записи, а его недавние события досыпаются в ленты подписчиков.
+ */
+@Slf4j
+@Component
+public class FriendTimelines {
+    private final JdbcTemplate jdbcTemplate;
+    private final int timelineSize;
+    private final int fanOutThreshold;
+    private final Map<Integer, Timeline> timelines = new ConcurrentHashMap<>();
+    private final Set<Integer> fanOutOnRead = ConcurrentHashMap.newKeySet();
+    private final ThreadPoolExecutor fanOut;
+
+    public FriendTimelines(JdbcTemplate jdbcTemplate,
+                           @Value("${filmorate.friends-feed.timeline-size:200}") int timelineSize,
+                           @Value("${filmorate.friends-feed.fan-out-threshold:1000}") int fanOutThreshold,
+                           @Value("${filmorate.friends-feed.queue-capacity:10000}") int queueCapacity) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.timelineSize = timelineSize;
+        this.fanOutThreshold = fanOutThreshold;
+        this.fanOut = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "timeline-fan-out");
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    @PostConstruct
+    public void load() {
+        jdbcTemplate.query("select user2_id from friendships group by user2_id having count(*) > ?",
+                rs -> {
+                    fanOutOnRead.add(rs.getInt("user2_id"));
+                }, fanOutThreshold);
+        log.info("Friend timelines started: {} fan-out-on-read authors", fanOutOnRead.size());
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        fanOut.shutdown();
+        fanOut.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Ставит в очередь раздачу записанного события подписчикам его автора.
+     */
+    public void fanOut(Event event) {
+        fanOut.execute(() -> deliver(event.getUserId(), event.getEventId()));
+    }
+
+    /**
+     * Авторы, на которых подписан читатель и чьи события нужно читать напрямую, а не из ленты.
+     * Перебираются такие авторы, а не друзья читателя: их мало, а друзей может быть сколько угодно.
+     */
+    public List<Integer> fanOutOnRead(IntPredicate followed) {
+        List<Integer> authors = new ArrayList<>();
+        for (Integer authorId : fanOutOnRead) {
+            if (followed.test(authorId)) {
+                authors.add(authorId);
+            }
+        }
+        return authors;
+    }
+
+    /**
+     * Id событий ленты пользователя меньше before, от новых к старым.
+     */
+    public List<Integer> getEventIds(int userId, int before) {
+        Timeline timeline = timelines.get(userId);
+        return timeline == null ? new ArrayList<>() : timeline.before(before);
+    }
+
+    public void removeUser(int userId) {
+        timelines.remove(userId);
+        fanOutOnRead.remove(userId);
+    }
+
+    private void deliver(int authorId, int eventId) {
+        try {
+            if (fanOutOnRead.contains(authorId)) {
+                switchBackIfSmall(authorId);
+                return;
+            }
+            List<Integer> followers = jdbcTemplate.queryForList("select user1_id from friendships " +
+                    "where user2_id = ?", Integer.class, authorId);
+            if (followers.size() > fanOutThreshold) {
+                fanOutOnRead.add(authorId);
+                log.debug("User {} has {} followers, switched to fan-out-on-read", authorId, followers.size());
+                return;
+            }
+            for (int followerId : followers) {
+                timelines.computeIfAbsent(followerId, id -> new Timeline()).add(eventId);
+            }
+        } catch (RuntimeException e) {
+            log.error("Fan-out of event {} failed", eventId, e);
+        }
+    }
+
+    /**
+     * Возвращает автора к раздаче при записи, если подписчиков стало не больше половины порога.
+     * Его последние события вливаются в ленты подписчиков, иначе они пропали бы из чтения.
+     */
+    private void switchBackIfSmall(int authorId) {
+        Integer count = jdbcTemplate.queryForObject("select count(*) from friendships where user2_id = ?",
+                Integer.class, authorId);
+        if (count == null || count > fanOutThreshold / 2) {
+            return;
+        }
+        List<Integer> followers = jdbcTemplate.queryForList("select user1_id from friendships " +
+                "where user2_id = ?", Integer.class, authorId);
+        List<Integer> recent = jdbcTemplate.queryForList("select event_id from events where user_id = ? " +
+                "order by event_id desc limit ?", Integer.class, authorId, timelineSize);
+        for (int followerId : followers) {
+            timelines.computeIfAbsent(followerId, id -> new Timeline()).merge(recent);
+        }
+        fanOutOnRead.remove(authorId);
+        log.debug("User {} has {} followers, switched back to fan-out-on-write", authorId, count);
+    }
+
+    private final class Timeline {
+        private final int[] eventIds = new int[timelineSize];
+        private int start;
+        private int size;
+
+        private synchronized void add(int eventId) {
+            if (eventIds.length == 0) {
+                return;
+            }
+            if (size == eventIds.length) {
+                eventIds[start] = eventId;
+                start = (start + 1) % eventIds.length;
+            } else {
+                eventIds[(start + size) % eventIds.length] = eventId;
+                size++;
+            }
+        }
+
+        /**
+         * Вливает id событий в произвольном порядке, сохраняя ленту упорядоченной
+         * и оставляя самые новые.
+         */
+        private synchronized void merge(List<Integer> added) {
+            TreeSet<Integer> merged = new TreeSet<>(added);
+            merged.addAll(before(Integer.MAX_VALUE));
+            start = 0;
+            size = 0;
+            merged.descendingSet().stream()
+                    .limit(eventIds.length)
+                    .sorted()
+                    .forEach(this::add);
+        }
+
+        private synchronized List<Integer> before(int before) {
+            List<Integer> ids = new ArrayList<>(size);
+            for (int i = size - 1; i >= 0; i--) {
+                int eventId = eventIds[(start + i) % eventIds.length];
+                if (eventId < before) {
+                    ids.add(eventId);
+                }
+            }
+            return ids;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package ru.yandex.practicum.filmorate.storage;
+
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Сворачивает строки выборки в родительские объекты по ключу за один проход.
+ * Индекс ключ -> объект позволяет добавить каждую строку к своему родителю за O(1),
+ * поэтому строки одного родителя не обязаны идти подряд.
+ */
+public class GroupingResultSetExtractor<K, T> implements ResultSetExtractor<List<T>> {
+    private final RowMapper<K> keyMapper;
+    private final RowMapper<T> parentMapper;
+    private final RowFolder<T> folder;
+    private final Map<K, T> parents;
+
+    private GroupingResultSetExtractor(RowMapper<K> keyMapper, RowMapper<T> parentMapper,
+                                       RowFolder<T> folder, Map<K, T> parents) {
+        this.keyMapper = keyMapper;
+        this.parentMapper = parentMapper;
+        this.folder = folder;
+        this.parents = parents;
+    }
+
+    /**
+     * Создаёт родителя при первой встрече ключа и сворачивает в него все строки с этим ключом.
+     */
+    public static <K, T> GroupingResultSetExtractor<K, T> grouping(RowMapper<K> keyMapper,
+                                                                   RowMapper<T> parentMapper,
+                                                                   RowFolder<T> folder) {
+        return new GroupingResultSetExtractor<>(keyMapper, parentMapper, folder, null);
+    }
+
+    /**
+     * Сворачивает строки в уже загруженных родителей; строки с неизвестным ключом пропускаются.
+     * Результат пуст: родители уже есть у вызывающего, копировать их на каждый запрос незачем.
+     */
+    public static <K, T> GroupingResultSetExtractor<K, T> into(Map<K, T> parents,
+                                                               RowMapper<K> keyMapper,
+                                                               RowFolder<T> folder) {
+        return new GroupingResultSetExtractor<>(keyMapper, null, folder, parents);
+    }
+
+    @Override
+    public List<T> extractData(ResultSet rs) throws SQLException {
+        Map<K, T> index = parents != null ? parents : new LinkedHashMap<>();
+        int rowNum = 0;
+        while (rs.next()) {
+            K key = keyMapper.mapRow(rs, rowNum);
+            T parent = index.get(key);
+            if (parent == null) {
+                if (parentMapper == null) {
+                    rowNum++;
+                    continue;
+                }
+                parent = parentMapper.mapRow(rs, rowNum);
+                index.put(key, parent);
+            }
+            folder.fold(parent, rs);
+            rowNum++;
+        }
+        return parents != null ? Collections.emptyList() : new ArrayList<>(index.values());
+    }
+
+    @FunctionalInterface
+    public interface RowFolder<T> {
+        void fold(T parent, ResultSet rs) throws SQLException;
+    }
+}
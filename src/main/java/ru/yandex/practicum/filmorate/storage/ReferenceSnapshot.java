@@ -0,0 +1,108 @@
+package ru.yandex.practicum.filmorate.storage;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.model.Director;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.Mpa;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.ToIntFunction;
+import java.util.stream.Collectors;
+
+/**
+ * Неизменяемые снимки справочников в массивах, индексированных по id: жанры и рейтинги MPA
+ * загружаются один раз при старте, режиссёры заменяются целиком (копированием) при каждой записи.
+ * Возвращаемые объекты общие для всех фильмов, изменять их нельзя.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ReferenceSnapshot {
+    private final JdbcTemplate jdbcTemplate;
+    private Table<Genre> genres;
+    private Table<Mpa> ratings;
+    private volatile Table<Director> directors;
+
+    @PostConstruct
+    public void load() {
+        genres = Table.of(jdbcTemplate.query("select genre_id, genre_name from genres",
+                (rs, rowNum) -> new Genre(rs.getInt("genre_id"), rs.getString("genre_name"))), Genre::getId);
+        ratings = Table.of(jdbcTemplate.query("select rating_id, rating_name from ratings_mpa",
+                (rs, rowNum) -> new Mpa(rs.getInt("rating_id"), rs.getString("rating_name"))), Mpa::getId);
+        directors = Table.of(jdbcTemplate.query("select director_id, director_name from directors",
+                (rs, rowNum) -> new Director(rs.getInt("director_id"), rs.getString("director_name"))),
+                Director::getId);
+        log.info("Reference snapshot loaded: {} genres, {} MPA ratings, {} directors",
+                genres.all.size(), ratings.all.size(), directors.all.size());
+    }
+
+    public List<Genre> getGenres() {
+        return genres.all;
+    }
+
+    public Genre getGenre(int id) {
+        return genres.get(id);
+    }
+
+    public List<Mpa> getRatings() {
+        return ratings.all;
+    }
+
+    public Mpa getRating(int id) {
+        return ratings.get(id);
+    }
+
+    public List<Director> getDirectors() {
+        return directors.all;
+    }
+
+    public Director getDirector(int id) {
+        return directors.get(id);
+    }
+
+    public synchronized void putDirector(Director director) {
+        List<Director> all = directors.all.stream()
+                .filter(existing -> existing.getId() != director.getId())
+                .collect(Collectors.toCollection(ArrayList::new));
+        all.add(new Director(director.getId(), director.getName()));
+        directors = Table.of(all, Director::getId);
+    }
+
+    public synchronized void removeDirector(int id) {
+        directors = Table.of(directors.all.stream()
+                .filter(existing -> existing.getId() != id)
+                .collect(Collectors.toList()), Director::getId);
+    }
+
+    private static final class Table<T> {
+        private final Object[] byId;
+        private final List<T> all;
+
+        private Table(Object[] byId, List<T> all) {
+            this.byId = byId;
+            this.all = all;
+        }
+
+        private static <T> Table<T> of(List<T> rows, ToIntFunction<T> id) {
+            int maxId = rows.stream().mapToInt(id).max().orElse(0);
+            Object[] byId = new Object[maxId + 1];
+            for (T row : rows) {
+                byId[id.applyAsInt(row)] = row;
+            }
+            return new Table<>(byId, rows.stream()
+                    .sorted(Comparator.comparingInt(id))
+                    .collect(Collectors.toUnmodifiableList()));
+        }
+
+        @SuppressWarnings("unchecked")
+        private T get(int id) {
+            return id >= 0 && id < byId.length ? (T) byId[id] : null;
+        }
+    }
+}
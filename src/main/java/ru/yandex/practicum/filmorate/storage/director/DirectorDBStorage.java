@@ -1,14 +1,12 @@
 package ru.yandex.practicum.filmorate.storage.director;
 
-import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.simple.SimpleJdbcInsert;
 import org.springframework.stereotype.Component;
 import ru.yandex.practicum.filmorate.exceptions.DirectorNotFoundException;
 import ru.yandex.practicum.filmorate.model.Director;
+import ru.yandex.practicum.filmorate.storage.ReferenceSnapshot;
 
-import java.sql.ResultSet;
-import java.sql.SQLException;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -17,9 +15,11 @@ import java.util.Objects;
 public class DirectorDBStorage implements DirectorStorage {
     private final JdbcTemplate jdbcTemplate;
     private final SimpleJdbcInsert simpleJdbcInsert;
+    private final ReferenceSnapshot referenceSnapshot;
 
-    public DirectorDBStorage(JdbcTemplate jdbcTemplate) {
+    public DirectorDBStorage(JdbcTemplate jdbcTemplate, ReferenceSnapshot referenceSnapshot) {
         this.jdbcTemplate = jdbcTemplate;
+        this.referenceSnapshot = referenceSnapshot;
         this.simpleJdbcInsert = new SimpleJdbcInsert(Objects.requireNonNull(jdbcTemplate.getDataSource()))
                 .withTableName("directors")
                 .usingGeneratedKeyColumns("director_id");
@@ -27,19 +27,17 @@ public class DirectorDBStorage implements DirectorStorage {
 
     @Override
     public List<Director> getListAllDirectors() {
-        String sql = "select * from directors";
-        return jdbcTemplate.query(sql, (resultSet, rowNum) -> makeDirector(resultSet));
+        return referenceSnapshot.getDirectors();
     }
 
     @Override
     public Director getDirectorById(int id) {
-        String sqlDirector = "SELECT * FROM directors WHERE director_id = ?";
-        try {
-            return jdbcTemplate.queryForObject(sqlDirector, (rs, rowNum) -> makeDirector(rs), id);
-        } catch (EmptyResultDataAccessException e) {
+        Director director = referenceSnapshot.getDirector(id);
+        if (director == null) {
             throw new DirectorNotFoundException("Режиссёр с идентификатором " +
                     id + " не зарегистрирован!");
         }
+        return director;
     }
 
     @Override
@@ -48,6 +46,7 @@ public class DirectorDBStorage implements DirectorStorage {
                 "director_name", director.getName());
         Number id = simpleJdbcInsert.executeAndReturnKey(params);
         director.setId(id.intValue());
+        referenceSnapshot.putDirector(director);
         return director;
     }
 
@@ -56,8 +55,8 @@ public class DirectorDBStorage implements DirectorStorage {
         getDirectorById(director.getId());
         String sqlDirector = "UPDATE directors set director_name = ? WHERE director_id = ?";
         jdbcTemplate.update(sqlDirector, director.getName(), director.getId());
+        referenceSnapshot.putDirector(director);
         return director;
-
     }
 
     @Override
@@ -65,10 +64,7 @@ public class DirectorDBStorage implements DirectorStorage {
         Director director = getDirectorById(id);
         String sqlDirector = "DELETE FROM directors WHERE director_id = ?";
         jdbcTemplate.update(sqlDirector, id);
+        referenceSnapshot.removeDirector(id);
         return director;
     }
-
-    private Director makeDirector(ResultSet resultSet) throws SQLException {
-        return new Director(resultSet.getInt("director_id"), resultSet.getString("director_name"));
-    }
 }
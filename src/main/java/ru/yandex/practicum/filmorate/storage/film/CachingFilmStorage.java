@@ -0,0 +1,89 @@
+package ru.yandex.practicum.filmorate.storage.film;
+
+import lombok.AllArgsConstructor;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.model.Film;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Хранилище фильмов с кэшем чтения по id поверх {@link FilmDBStorage}.
+ * Изменения фильма и его лайков сбрасывают запись этого фильма.
+ */
+@Primary
+@Component
+@AllArgsConstructor
+public class CachingFilmStorage implements FilmStorage {
+    private final FilmDBStorage filmDBStorage;
+    private final FilmCache filmCache;
+
+    @Override
+    public Film getFilmById(int id) {
+        return filmCache.get(id, filmDBStorage::getFilmById);
+    }
+
+    @Override
+    public List<Film> getListAllFilms() {
+        return filmDBStorage.getListAllFilms();
+    }
+
+    @Override
+    public List<Film> getFilmsPage(int afterId, int limit) {
+        return filmDBStorage.getFilmsPage(afterId, limit);
+    }
+
+    @Override
+    public void streamAllFilms(Consumer<Film> consumer) {
+        filmDBStorage.streamAllFilms(consumer);
+    }
+
+    @Override
+    public List<Film> getFilmsByIds(List<Integer> ids) {
+        return filmCache.getAll(ids, filmDBStorage::getFilmsByIds);
+    }
+
+    @Override
+    public Film addFilm(Film film) {
+        return filmDBStorage.addFilm(film);
+    }
+
+    @Override
+    public List<Film> addFilms(List<Film> films) {
+        return filmDBStorage.addFilms(films);
+    }
+
+    @Override
+    public Film deleteFilm(int id) {
+        Film film = filmDBStorage.deleteFilm(id);
+        filmCache.invalidate(id);
+        return film;
+    }
+
+    @Override
+    public Film updateFilm(Film film) {
+        filmCache.invalidate(film.getId());
+        Film updatedFilm = filmDBStorage.updateFilm(film);
+        filmCache.invalidate(film.getId());
+        return updatedFilm;
+    }
+
+    @Override
+    public boolean addLike(int userId, int filmId) {
+        boolean added = filmDBStorage.addLike(userId, filmId);
+        if (added) {
+            filmCache.invalidate(filmId);
+        }
+        return added;
+    }
+
+    @Override
+    public boolean deleteLike(int userId, int filmId) {
+        boolean deleted = filmDBStorage.deleteLike(userId, filmId);
+        if (deleted) {
+            filmCache.invalidate(filmId);
+        }
+        return deleted;
+    }
+}
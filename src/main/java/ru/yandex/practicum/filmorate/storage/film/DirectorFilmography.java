@@ -0,0 +1,186 @@
+package ru.yandex.practicum.filmorate.storage.film;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.model.Director;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.enums.SortBy;
+
+import javax.annotation.PostConstruct;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Фильмография режиссёров в памяти: для каждого режиссёра id фильмов хранятся сразу в двух
+ * порядках — по дате выпуска и по количеству лайков. Изменения одного фильма сериализуются
+ * через compute, чтение страницы не блокируется.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class DirectorFilmography {
+    private static final Comparator<Release> BY_DATE = Comparator.comparing(Release::getDate)
+            .thenComparingInt(Release::getFilmId);
+
+    private final JdbcTemplate jdbcTemplate;
+    private final PopularityLeaderboard popularityLeaderboard;
+    private final Map<Integer, Credits> films = new ConcurrentHashMap<>();
+    private final Map<Integer, NavigableSet<Release>> byDate = new ConcurrentHashMap<>();
+    private final Map<Integer, FilmRanking> byLikes = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void load() {
+        Map<Integer, List<Integer>> directors = new HashMap<>();
+        jdbcTemplate.query("select film_id, director_id from film_director", rs -> {
+            directors.computeIfAbsent(rs.getInt("film_id"), id -> new ArrayList<>()).add(rs.getInt("director_id"));
+        });
+        jdbcTemplate.query("select film_id, film_release_date from films " +
+                "where film_id in (select film_id from film_director)", rs -> {
+            int filmId = rs.getInt("film_id");
+            int[] directorIds = directors.get(filmId).stream().mapToInt(Integer::intValue).toArray();
+            putFilm(filmId, new Credits(rs.getDate("film_release_date").toLocalDate(), directorIds));
+        });
+        log.info("Director filmography loaded: {} directors, {} films", byDate.size(), films.size());
+    }
+
+    public void addFilm(Film film) {
+        putFilm(film.getId(), Credits.of(film));
+    }
+
+    public void updateFilm(Film film) {
+        putFilm(film.getId(), Credits.of(film));
+    }
+
+    public void removeFilm(int filmId) {
+        films.computeIfPresent(filmId, (id, old) -> {
+            unlink(id, old);
+            return null;
+        });
+    }
+
+    public void changeLikes(int filmId, int delta) {
+        films.computeIfPresent(filmId, (id, credits) -> {
+            for (int directorId : credits.directorIds) {
+                FilmRanking ranking = byLikes.get(directorId);
+                if (ranking != null) {
+                    ranking.changeLikes(id, delta);
+                }
+            }
+            return credits;
+        });
+    }
+
+    public void removeDirector(int directorId) {
+        NavigableSet<Release> releases = byDate.remove(directorId);
+        byLikes.remove(directorId);
+        if (releases == null) {
+            return;
+        }
+        for (Release release : releases) {
+            films.computeIfPresent(release.filmId, (id, credits) -> {
+                int[] directorIds = Arrays.stream(credits.directorIds).filter(d -> d != directorId).toArray();
+                return directorIds.length == 0 ? null : new Credits(credits.date, directorIds);
+            });
+        }
+    }
+
+    /**
+     * Все id фильмов режиссёра по дате выпуска.
+     */
+    public List<Integer> getFilmIds(int directorId) {
+        List<Integer> ids = new ArrayList<>();
+        byDate.getOrDefault(directorId, Collections.emptyNavigableSet()).forEach(release -> ids.add(release.filmId));
+        return ids;
+    }
+
+    /**
+     * Страница id фильмов режиссёра в заданном порядке.
+     */
+    public List<Integer> getFilmIds(int directorId, SortBy sortBy, int offset, int limit) {
+        if (sortBy == SortBy.likes) {
+            FilmRanking ranking = byLikes.get(directorId);
+            if (ranking == null) {
+                return new ArrayList<>();
+            }
+            List<Integer> top = ranking.top((int) Math.min((long) offset + limit, Integer.MAX_VALUE));
+            return top.size() <= offset ? new ArrayList<>() : top.subList(offset, top.size());
+        }
+        List<Integer> ids = new ArrayList<>();
+        Iterator<Release> releases = byDate.getOrDefault(directorId, Collections.emptyNavigableSet()).iterator();
+        for (int skipped = 0; skipped < offset && releases.hasNext(); skipped++) {
+            releases.next();
+        }
+        while (ids.size() < limit && releases.hasNext()) {
+            ids.add(releases.next().filmId);
+        }
+        return ids;
+    }
+
+    private void putFilm(int filmId, Credits credits) {
+        films.compute(filmId, (id, old) -> {
+            if (old != null) {
+                unlink(id, old);
+            }
+            if (credits.directorIds.length == 0) {
+                return null;
+            }
+            int likes = popularityLeaderboard.getLikes(id);
+            for (int directorId : credits.directorIds) {
+                byDate.computeIfAbsent(directorId, d -> new ConcurrentSkipListSet<>(BY_DATE))
+                        .add(new Release(id, credits.date));
+                byLikes.computeIfAbsent(directorId, d -> new FilmRanking()).put(id, likes);
+            }
+            return credits;
+        });
+    }
+
+    private void unlink(int filmId, Credits credits) {
+        for (int directorId : credits.directorIds) {
+            NavigableSet<Release> releases = byDate.get(directorId);
+            if (releases != null) {
+                releases.remove(new Release(filmId, credits.date));
+            }
+            FilmRanking ranking = byLikes.get(directorId);
+            if (ranking != null) {
+                ranking.remove(filmId);
+            }
+        }
+    }
+
+    private static final class Credits {
+        private final LocalDate date;
+        private final int[] directorIds;
+
+        private Credits(LocalDate date, int[] directorIds) {
+            this.date = date;
+            this.directorIds = directorIds;
+        }
+
+        private static Credits of(Film film) {
+            return new Credits(film.getReleaseDate(),
+                    film.getDirectors().stream().mapToInt(Director::getId).distinct().toArray());
+        }
+    }
+
+    private static final class Release {
+        private final int filmId;
+        private final LocalDate date;
+
+        private Release(int filmId, LocalDate date) {
+            this.filmId = filmId;
+            this.date = date;
+        }
+
+        private int getFilmId() {
+            return filmId;
+        }
+
+        private LocalDate getDate() {
+            return date;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package ru.yandex.practicum.filmorate.storage.film;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.model.Film;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Кэш собранных фильмов по id с вытеснением W-TinyLFU (Caffeine) и ограничением по размеру.
+ * Счётчики попаданий, промахов и вытеснений публикуются в Micrometer как cache.* с тегом cache=films.
+ * При filmorate.film-cache.enabled=false все чтения идут напрямую в загрузчик.
+ */
+@Slf4j
+@Component
+public class FilmCache {
+    private final Cache<Integer, Film> cache;
+    private final AtomicLong clock = new AtomicLong();
+    private final Map<Integer, Long> invalidatedAt = new ConcurrentHashMap<>();
+    private final TreeMap<Long, Integer> activeLoads = new TreeMap<>();
+
+    public FilmCache(MeterRegistry meterRegistry,
+                     @Value("${filmorate.film-cache.enabled:true}") boolean enabled,
+                     @Value("${filmorate.film-cache.maximum-size:10000}") long maximumSize) {
+        if (!enabled) {
+            cache = null;
+            log.info("Film cache disabled");
+            return;
+        }
+        cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "films");
+    }
+
+    public Film get(int filmId, Function<Integer, Film> loader) {
+        return cache == null ? loader.apply(filmId) : cache.get(filmId, loader);
+    }
+
+    /**
+     * Возвращает фильмы в порядке ids, догружая отсутствующие в кэше одним вызовом loader.
+     * Догруженный фильм кладётся в кэш, только если его не сбрасывали с начала загрузки:
+     * иначе загрузчик мог прочитать версию до изменения и закэшировать её надолго.
+     * Отметки сброса хранятся, только пока идёт начатая раньше них загрузка.
+     */
+    public List<Film> getAll(List<Integer> filmIds, Function<List<Integer>, List<Film>> loader) {
+        if (cache == null) {
+            return loader.apply(filmIds);
+        }
+        Map<Integer, Film> films = new HashMap<>(cache.getAllPresent(filmIds));
+        List<Integer> missing = filmIds.stream()
+                .filter(id -> !films.containsKey(id))
+                .distinct()
+                .collect(Collectors.toList());
+        if (!missing.isEmpty()) {
+            long loadStarted = startLoad();
+            try {
+                for (Film film : loader.apply(missing)) {
+                    films.put(film.getId(), film);
+                    cache.asMap().compute(film.getId(), (id, cached) ->
+                            invalidatedAt.getOrDefault(id, 0L) > loadStarted ? cached : film);
+                }
+            } finally {
+                finishLoad(loadStarted);
+            }
+        }
+        return filmIds.stream()
+                .map(films::get)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
+    public void invalidate(int filmId) {
+        if (cache != null) {
+            invalidatedAt.put(filmId, clock.incrementAndGet());
+            cache.invalidate(filmId);
+        }
+    }
+
+    private synchronized long startLoad() {
+        long started = clock.get();
+        activeLoads.merge(started, 1, Integer::sum);
+        return started;
+    }
+
+    /**
+     * Отметки не позже начала самой старой идущей загрузки уже никому не мешают: загрузки,
+     * начатые после, видят их как более ранние. Без идущих загрузок граница — текущее время.
+     */
+    private void finishLoad(long started) {
+        long oldest;
+        synchronized (this) {
+            activeLoads.computeIfPresent(started, (at, count) -> count == 1 ? null : count - 1);
+            oldest = activeLoads.isEmpty() ? clock.get() : activeLoads.firstKey();
+        }
+        if (!invalidatedAt.isEmpty()) {
+            invalidatedAt.values().removeIf(at -> at <= oldest);
+        }
+    }
+
+    /**
+     * Сбрасывает записи перечисленных фильмов, например всех фильмов переименованного режиссёра.
+     */
+    public void invalidateAll(Collection<Integer> filmIds) {
+        filmIds.forEach(this::invalidate);
+    }
+}
@@ -1,95 +1,66 @@
 package ru.yandex.practicum.filmorate.storage.film;
 
 import lombok.AllArgsConstructor;
-import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
-import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.jdbc.support.KeyHolder;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
 import ru.yandex.practicum.filmorate.exceptions.FilmNotFoundException;
 import ru.yandex.practicum.filmorate.exceptions.UserNotFoundException;
-import ru.yandex.practicum.filmorate.model.*;
-import ru.yandex.practicum.filmorate.model.enums.SortBy;
-import ru.yandex.practicum.filmorate.storage.director.DirectorDBStorage;
+import ru.yandex.practicum.filmorate.model.Director;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.storage.ReferenceSnapshot;
 
 import java.sql.Date;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
 
 @Component
 @AllArgsConstructor
 public class FilmDBStorage implements FilmStorage {
     private final JdbcTemplate jdbcTemplate;
-    private final DirectorDBStorage directorDBStorage;
-    private final String sql = "select f.film_id, f.film_name, f.film_description, f.film_release_date, f.film_duration, " +
-            "f.film_rating, f.rating_mpa_id, rm.rating_name, fg.genre_id, g.genre_name, " +
-            "l.user_id, fd.director_id, d.director_name " +
-            "from films f " +
-            "left join film_genre fg on f.film_id = fg.film_id " +
-            "left join genres g on fg.genre_id = g.genre_id " +
-            "left join ratings_mpa rm on f.rating_mpa_id = rm.rating_id " +
-            "left join likes l on f.film_id = l.film_id " +
-            "left join film_director fd on f.film_id = fd.film_id " +
-            "left join directors d on fd.director_id = d.director_id ";
+    private final TransactionTemplate transactionTemplate;
+    private final FilmHydrator filmHydrator;
+    private final LikeWriteBuffer likeWriteBuffer;
+    private final ReferenceSnapshot referenceSnapshot;
 
     @Override
     public Film getFilmById(int id) {
-        try {
-            List<Film> films = jdbcTemplate.queryForObject(sql + "WHERE f.film_id = ?", filmRowMapper(), id);
-            return Objects.requireNonNull(films).get(0);
-        } catch (EmptyResultDataAccessException e) {
+        List<Film> films = filmHydrator.query("where f.film_id = ?", id);
+        if (films.isEmpty()) {
             throw new FilmNotFoundException(String.format("Film id %d not found", id));
         }
+        return films.get(0);
     }
 
     @Override
     public List<Film> getListAllFilms() {
-        try {
-            List<Film> films = jdbcTemplate.queryForObject(sql, filmRowMapper());
-            Objects.requireNonNull(films).sort(Comparator.comparing(Film::getId));
-            return films;
-        } catch (EmptyResultDataAccessException e) {
-            return new ArrayList<>();
-        }
+        return filmHydrator.query("order by f.film_id");
     }
 
     @Override
-    public List<Film> getCommonFilms(int userId, int friendId) {
-        try {
-            List<Film> userFilms = jdbcTemplate.queryForObject(sql + "WHERE l.user_id = ?", filmRowMapper(), userId);
-            List<Film> friendFilms = jdbcTemplate.queryForObject(sql + "WHERE l.user_id = ?", filmRowMapper(), friendId);
-            return Objects.requireNonNull(userFilms).stream()
-                    .filter(Objects.requireNonNull(friendFilms)::contains)
-                    .distinct()
-                    .collect(Collectors.toList());
-        } catch (EmptyResultDataAccessException e) {
-            return new ArrayList<>();
-        }
+    public List<Film> getFilmsPage(int afterId, int limit) {
+        return filmHydrator.query("where f.film_id > ? order by f.film_id limit ?", afterId, limit);
     }
 
     @Override
-    public List<Film> getAllFilmsByDirectorId(int directorId, SortBy sortBy) {
-        directorDBStorage.getDirectorById(directorId);
-        try {
-            switch (sortBy) {
-                case year:
-                    return jdbcTemplate.queryForObject(sql +
-                                    "where fd.director_id = ? order by f.film_release_date",
-                            filmRowMapper(), directorId);
-                case likes:
-                    return jdbcTemplate.queryForObject(sql +
-                                    "where fd.director_id = ? order by f.film_rating desc",
-                            filmRowMapper(), directorId);
-                default:
-                    throw new RuntimeException();
-            }
-        } catch (EmptyResultDataAccessException e) {
-            return new ArrayList<>();
-        }
+    public void streamAllFilms(Consumer<Film> consumer) {
+        filmHydrator.stream("order by f.film_id", consumer);
+    }
+
+    @Override
+    public List<Film> getFilmsByIds(List<Integer> ids) {
+        return filmHydrator.getByIds(ids);
     }
 
     @Override
@@ -117,218 +88,182 @@ public class FilmDBStorage implements FilmStorage {
     }
 
     @Override
-    public Film deleteFilm(int id) {
-        Film film = getFilmById(id);
-        jdbcTemplate.update("DELETE FROM films WHERE film_id = ?", id);
-        return film;
-    }
-
-    @Override
-    public Film updateFilm(Film film) {
-        getFilmById(film.getId());
-        jdbcTemplate.update("UPDATE films " +
-                        "SET film_name = ?, " +
-                        "film_description = ?, " +
-                        "film_release_date = ?, " +
-                        "film_duration = ? " +
-                        "WHERE film_id = ?",
-                film.getName(),
-                film.getDescription(),
-                film.getReleaseDate(),
-                film.getDuration(),
-                film.getId());
-
-        if (film.getMpa().getId() > 0 && film.getMpa().getId() < 6) {
-            jdbcTemplate.update("UPDATE films SET rating_mpa_id = ? WHERE film_id = ?",
-                    film.getMpa().getId(), film.getId());
+    public List<Film> addFilms(List<Film> films) {
+        if (films.isEmpty()) {
+            return films;
         }
-
-        jdbcTemplate.update("DELETE FROM film_genre WHERE film_id = ?", film.getId());
-        addFilmGenres(film);
-
-        jdbcTemplate.update("DELETE FROM film_director WHERE film_id = ?", film.getId());
-        addFilmDirectors(film);
-        return getFilmById(film.getId());
+        transactionTemplate.executeWithoutResult(status -> {
+            insertFilms(films);
+            List<Object[]> genres = new ArrayList<>();
+            List<Object[]> directors = new ArrayList<>();
+            for (Film film : films) {
+                film.getGenres().forEach(genre -> genres.add(new Object[]{film.getId(), genre.getId()}));
+                film.getDirectors().forEach(director -> directors.add(new Object[]{film.getId(), director.getId()}));
+            }
+            jdbcTemplate.batchUpdate("insert into film_genre (film_id, genre_id) values (?, ?)", genres);
+            jdbcTemplate.batchUpdate("insert into film_director (film_id, director_id) values (?, ?)", directors);
+        });
+        return films;
     }
 
     @Override
-    public void addLike(int userId, int filmId) {
-        getFilmById(filmId);
-        try {
-            jdbcTemplate.queryForObject("select user_id from users where user_id = ?",
-                    (rs, rowNum) -> rs.getInt("user_id"), userId);
-        } catch (EmptyResultDataAccessException e) {
-            throw new UserNotFoundException(String.format("User by id %d not found", userId));
-        }
-        try {
-            jdbcTemplate.queryForObject("select * from likes where user_id = ? and film_id =?",
-                    (rs, rowNum) -> rs.getInt("user_id"), userId, filmId);
-        } catch (EmptyResultDataAccessException e) {
-            jdbcTemplate.update("insert into likes (user_id, film_id) values (?, ?)", userId, filmId);
-            jdbcTemplate.update("UPDATE films SET film_rating = ? WHERE film_id = ?",
-                    filmRateById(filmId) + 1, filmId);
+    public Film deleteFilm(int id) {
+        Film film = getFilmById(id);
+        if (jdbcTemplate.update("DELETE FROM films WHERE film_id = ?", id) == 0) {
+            throw new FilmNotFoundException(String.format("Film id %d not found", id));
         }
+        return film;
     }
 
+    /**
+     * Обновляет фильм одной транзакцией: скалярные поля и рейтинг MPA — одним запросом,
+     * жанры и режиссёры — только разницей между сохранёнными и новыми наборами.
+     * Ответ собирается из прочитанного под блокировкой строки фильма, без повторного чтения.
+     */
     @Override
-    public void deleteLike(int userId, int filmId) {
-        getFilmById(filmId);
-        try {
-            jdbcTemplate.queryForObject("select user_id from users where user_id = ?",
-                    (rs, rowNum) -> rs.getInt("user_id"), userId);
-        } catch (EmptyResultDataAccessException e) {
-            throw new UserNotFoundException(String.format("User by id %d not found", userId));
-        }
-        jdbcTemplate.update("delete from likes where user_id = ? and film_id = ?", userId, filmId);
-        if (filmRateById(filmId) > 0) {
-            jdbcTemplate.update("UPDATE films SET film_rating = ? WHERE film_id = ?",
-                    filmRateById(filmId) - 1, filmId);
-        }
+    public Film updateFilm(Film film) {
+        Integer mpaId = film.getMpa() != null && referenceSnapshot.getRating(film.getMpa().getId()) != null
+                ? film.getMpa().getId() : null;
+        return transactionTemplate.execute(status -> {
+            int updated = jdbcTemplate.update("UPDATE films " +
+                            "SET film_name = ?, " +
+                            "film_description = ?, " +
+                            "film_release_date = ?, " +
+                            "film_duration = ?, " +
+                            "rating_mpa_id = COALESCE(?, rating_mpa_id) " +
+                            "WHERE film_id = ?",
+                    film.getName(),
+                    film.getDescription(),
+                    film.getReleaseDate(),
+                    film.getDuration(),
+                    mpaId,
+                    film.getId());
+            if (updated == 0) {
+                throw new FilmNotFoundException(String.format("Film id %d not found", film.getId()));
+            }
+            Film stored = getFilmById(film.getId());
+
+            Set<Integer> genreIds = ids(film.getGenres(), Genre::getId);
+            Set<Integer> directorIds = ids(film.getDirectors(), Director::getId);
+            applyDiff("film_genre", "genre_id", film.getId(), ids(stored.getGenres(), Genre::getId), genreIds);
+            applyDiff("film_director", "director_id", film.getId(),
+                    ids(stored.getDirectors(), Director::getId), directorIds);
+
+            stored.getGenres().clear();
+            genreIds.stream().map(referenceSnapshot::getGenre).filter(Objects::nonNull)
+                    .forEach(stored.getGenres()::add);
+            stored.getDirectors().clear();
+            directorIds.stream().map(referenceSnapshot::getDirector).filter(Objects::nonNull)
+                    .forEach(stored.getDirectors()::add);
+            return stored;
+        });
     }
 
     @Override
-    public List<Film> topFilms(int count) {
-        List<Film> films = jdbcTemplate.queryForObject(sql + "order by film_rating desc", filmRowMapper());
-        List<Film> top = new ArrayList<>();
-        if (count > Objects.requireNonNull(films).size()) {
-            count = films.size();
+    public boolean addLike(int userId, int filmId) {
+        if (likeWriteBuffer.isEnabled()) {
+            return likeWriteBuffer.addLike(userId, filmId);
         }
-        for (int i = 0; i < count; i++) {
-            top.add(films.get(i));
-        }
-        return top;
-    }
-
-    @Override
-    public List<Film> topFilmsByYear(int count, int year) {
-
-        List<Film> filmsFromDataBase;
-        List<Film> filmsFinal = new ArrayList<>(count);
-        try {
-            filmsFromDataBase = jdbcTemplate.queryForObject(sql + "where extract(YEAR from f.film_release_date) = ? " +
-                    "order by film_rating desc", filmRowMapper(), year);
-            for (Film film : Objects.requireNonNull(filmsFromDataBase)) {
-                filmsFinal.add(getFilmById(film.getId()));
+        return Boolean.TRUE.equals(transactionTemplate.execute(status -> {
+            int inserted;
+            try {
+                inserted = jdbcTemplate.update("merge into likes l " +
+                        "using (values (cast(? as int), cast(? as int))) as s(user_id, film_id) " +
+                        "on l.user_id = s.user_id and l.film_id = s.film_id " +
+                        "when not matched then insert (user_id, film_id) values (s.user_id, s.film_id)",
+                        userId, filmId);
+            } catch (DuplicateKeyException e) {
+                return false;
+            } catch (DataIntegrityViolationException e) {
+                checkLikeParticipants(userId, filmId);
+                throw e;
             }
-            return filmsFinal;
-        } catch (EmptyResultDataAccessException ignored) {
-
-        }
-        return filmsFinal;
+            if (inserted == 0) {
+                return false;
+            }
+            jdbcTemplate.update("update films set film_rating = film_rating + 1 where film_id = ?", filmId);
+            return true;
+        }));
     }
 
     @Override
-    public List<Film> topFilmsByGenre(int count, int genreId) {
-        List<Film> filmsFromDataBase;
-        List<Film> filmsFinal = new ArrayList<>(count);
-        try {
-            filmsFromDataBase = jdbcTemplate.queryForObject(sql + "where g.genre_id = ? " +
-                    "order by film_rating desc", filmRowMapper(), genreId);
-            for (Film film : Objects.requireNonNull(filmsFromDataBase)) {
-                filmsFinal.add(getFilmById(film.getId()));
-            }
-            return filmsFinal;
-        } catch (EmptyResultDataAccessException ignored) {
-
+    public boolean deleteLike(int userId, int filmId) {
+        if (likeWriteBuffer.isEnabled()) {
+            return likeWriteBuffer.deleteLike(userId, filmId);
         }
-        return filmsFinal;
+        return Boolean.TRUE.equals(transactionTemplate.execute(status -> {
+            if (jdbcTemplate.update("delete from likes where user_id = ? and film_id = ?", userId, filmId) == 0) {
+                return false;
+            }
+            jdbcTemplate.update("update films set film_rating = film_rating - 1 where film_id = ?", filmId);
+            return true;
+        }));
     }
 
-    @Override
-    public List<Film> topFilmsByYearAndGenre(int count, int year, int genreId) {
-        List<Film> filmsFromDataBase;
-        List<Film> filmsFinal = new ArrayList<>(count);
-        try {
-            filmsFromDataBase = jdbcTemplate.queryForObject(sql + "where g.genre_id = ? and extract(YEAR from f.film_release_date) = ? " +
-                    "order by film_rating desc", filmRowMapper(), genreId, year);
-            for (Film film : Objects.requireNonNull(filmsFromDataBase)) {
-                filmsFinal.add(getFilmById(film.getId()));
+    /**
+     * Вставляет фильмы одним многострочным INSERT и читает сгенерированные ключи в порядке строк.
+     */
+    private void insertFilms(List<Film> films) {
+        String sqlQuery = "insert into films (film_name, film_description, film_release_date, " +
+                "film_duration, film_rating, rating_mpa_id) values " +
+                String.join(", ", Collections.nCopies(films.size(), "(?, ?, ?, ?, 0, ?)"));
+        jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+            try (PreparedStatement stmt = connection.prepareStatement(sqlQuery, new String[]{"film_id"})) {
+                int index = 1;
+                for (Film film : films) {
+                    stmt.setString(index++, film.getName());
+                    stmt.setString(index++, film.getDescription());
+                    stmt.setDate(index++, Date.valueOf(film.getReleaseDate()));
+                    stmt.setLong(index++, film.getDuration());
+                    stmt.setInt(index++, film.getMpa().getId());
+                }
+                stmt.executeUpdate();
+                try (ResultSet keys = stmt.getGeneratedKeys()) {
+                    for (Film film : films) {
+                        if (!keys.next()) {
+                            throw new IllegalStateException("Generated film ids are missing");
+                        }
+                        film.setId(keys.getInt(1));
+                    }
+                }
             }
-            return filmsFinal;
-        } catch (EmptyResultDataAccessException ignored) {
-
-        }
-        return filmsFinal;
+            return null;
+        });
     }
 
-    @Override
-    public List<Film> searchFilms(String query, String by) {
-        try {
-            String like = "%" + query.toLowerCase(Locale.ENGLISH) + "%";
-            String sqlBy;
-            switch (by) {
-                case "title":
-                    sqlBy = sql + " where lower(film_name) like ? order by film_rating desc";
-                    return jdbcTemplate.queryForObject(sqlBy, filmRowMapper(), like);
-                case "director":
-                    sqlBy = sql + " where lower(director_name) like ? order by film_rating desc";
-                    return jdbcTemplate.queryForObject(sqlBy, filmRowMapper(), like);
-                case "title,director":
-                case "director,title":
-                    sqlBy = sql + " where lower(director_name) like ? or lower(film_name) like ? order by film_rating desc";
-                    return jdbcTemplate.queryForObject(sqlBy, filmRowMapper(), like, like);
-                default:
-                    return new ArrayList<>();
-            }
-        } catch (EmptyResultDataAccessException e) {
-            return new ArrayList<>();
+    private void checkLikeParticipants(int userId, int filmId) {
+        if (!exists("select exists(select 1 from films where film_id = ?)", filmId)) {
+            throw new FilmNotFoundException(String.format("Film id %d not found", filmId));
+        }
+        if (!exists("select exists(select 1 from users where user_id = ?)", userId)) {
+            throw new UserNotFoundException(String.format("User by id %d not found", userId));
         }
     }
 
-    private RowMapper<List<Film>> filmRowMapper() {
-        return (rs, rowNum) -> {
-            List<Film> films = new ArrayList<>();
-
-            Film film = new Film(rs.getInt("film_id"),
-                    rs.getString("film_name"),
-                    rs.getString("film_description"),
-                    rs.getDate("film_release_date").toLocalDate(),
-                    rs.getInt("film_duration"),
-                    new Mpa(rs.getInt("rating_mpa_id"), rs.getString("rating_name")));
-            film.setRate(rs.getInt("film_rating"));
+    private boolean exists(String sql, int id) {
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject(sql, Boolean.class, id));
+    }
 
-            do {
-                if (film.getId() == rs.getInt("film_id")) {
-                    if (rs.getInt("genre_id") != 0) {
-                        film.addGenre(rs);
-                    }
-                    if (rs.getInt("director_id") != 0) {
-                        film.addDirector(rs);
-                    }
-                    if (rs.getInt("user_id") != 0) {
-                        film.getLikes().add(rs.getInt("user_id"));
-                    }
-                } else {
-                    film = new Film(rs.getInt("film_id"),
-                            rs.getString("film_name"),
-                            rs.getString("film_description"),
-                            rs.getDate("film_release_date").toLocalDate(),
-                            rs.getInt("film_duration"),
-                            new Mpa(rs.getInt("rating_mpa_id"), rs.getString("rating_name")));
-                    film.setRate(rs.getInt("film_rating"));
-                    if (rs.getInt("genre_id") != 0) {
-                        film.addGenre(rs);
-                    }
-                    if (rs.getInt("director_id") != 0) {
-                        film.addDirector(rs);
-                    }
-                    if (rs.getInt("user_id") != 0) {
-                        film.getLikes().add(rs.getInt("user_id"));
-                    }
-                }
-                if (!films.stream()
-                        .map(Film::getId)
-                        .collect(Collectors.toList()).contains(film.getId())) {
-                    films.add(film);
-                }
-            } while (rs.next());
-            return films;
-        };
+    private void applyDiff(String table, String column, int filmId, Set<Integer> stored, Set<Integer> incoming) {
+        if (stored.equals(incoming)) {
+            return;
+        }
+        List<Object[]> removed = new ArrayList<>();
+        stored.stream().filter(id -> !incoming.contains(id)).forEach(id -> removed.add(new Object[]{filmId, id}));
+        List<Object[]> added = new ArrayList<>();
+        incoming.stream().filter(id -> !stored.contains(id)).forEach(id -> added.add(new Object[]{filmId, id}));
+        if (!removed.isEmpty()) {
+            jdbcTemplate.batchUpdate("delete from " + table + " where film_id = ? and " + column + " = ?", removed);
+        }
+        if (!added.isEmpty()) {
+            jdbcTemplate.batchUpdate("insert into " + table + " (film_id, " + column + ") values (?, ?)", added);
+        }
     }
 
-    private Integer filmRateById(int filmId) {
-        return jdbcTemplate.queryForObject("select film_rating from films where film_id = ?",
-                (rs, rowNum) -> rs.getInt("film_rating"), filmId);
+    private static <T> Set<Integer> ids(Collection<T> items, ToIntFunction<T> id) {
+        Set<Integer> ids = new TreeSet<>();
+        items.forEach(item -> ids.add(id.applyAsInt(item)));
+        return ids;
     }
 
     private void saveDirectors(Film film) {
@@ -352,19 +287,4 @@ public class FilmDBStorage implements FilmStorage {
             }
         });
     }
-
-    private void addFilmDirectors(Film film) {
-        jdbcTemplate.batchUpdate("insert into film_director (film_id, director_id) values (?,?)", new BatchPreparedStatementSetter() {
-            @Override
-            public void setValues(PreparedStatement preparedStatement, int i) throws SQLException {
-                preparedStatement.setInt(1, film.getId());
-                preparedStatement.setInt(2, new ArrayList<>(film.getDirectors()).get(i).getId());
-            }
-
-            @Override
-            public int getBatchSize() {
-                return film.getDirectors().size();
-            }
-        });
-    }
 }
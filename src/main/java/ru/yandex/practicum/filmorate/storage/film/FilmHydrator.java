@@ -0,0 +1,179 @@
+package ru.yandex.practicum.filmorate.storage.film;
+
+import lombok.AllArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.model.Director;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.Mpa;
+import ru.yandex.practicum.filmorate.storage.GroupingResultSetExtractor;
+import ru.yandex.practicum.filmorate.storage.ReferenceSnapshot;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Собирает фильмы в два этапа: сначала базовые строки films (по одной на фильм),
+ * затем жанры, режиссёры и количество лайков — по одному запросу с IN-списком на каждую связь.
+ * Размер выборки растёт с числом фильмов, а не с произведением числа их связей.
+ * Жанры, рейтинги MPA и режиссёры берутся из {@link ReferenceSnapshot} без соединений со справочниками.
+ */
+@Component
+@AllArgsConstructor
+public class FilmHydrator {
+    private static final int ID_CHUNK_SIZE = 1000;
+    private static final int STREAM_FETCH_SIZE = 500;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedJdbcTemplate;
+    private final LikeWriteBuffer likeWriteBuffer;
+    private final ReferenceSnapshot referenceSnapshot;
+    private final String sql = "select f.film_id, f.film_name, f.film_description, f.film_release_date, " +
+            "f.film_duration, f.rating_mpa_id " +
+            "from films f ";
+
+    /**
+     * Загружает фильмы по условию, дописываемому к базовому запросу (where/order by/limit),
+     * сохраняя порядок строк базового запроса.
+     */
+    public List<Film> query(String condition, Object... args) {
+        List<Film> films = jdbcTemplate.query(sql + condition, filmRowMapper(), args);
+        fillRelations(films);
+        return films;
+    }
+
+    /**
+     * Читает фильмы однонаправленным курсором и отдаёт их потребителю порциями,
+     * догружая связи для каждой порции, так что в памяти одновременно не больше одной порции.
+     */
+    public void stream(String condition, Consumer<Film> consumer, Object... args) {
+        List<Film> chunk = new ArrayList<>(STREAM_FETCH_SIZE);
+        RowMapper<Film> mapper = filmRowMapper();
+        jdbcTemplate.query(connection -> {
+            PreparedStatement stmt = connection.prepareStatement(sql + condition,
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            stmt.setFetchSize(STREAM_FETCH_SIZE);
+            for (int i = 0; i < args.length; i++) {
+                stmt.setObject(i + 1, args[i]);
+            }
+            return stmt;
+        }, rs -> {
+            chunk.add(mapper.mapRow(rs, chunk.size()));
+            if (chunk.size() == STREAM_FETCH_SIZE) {
+                fillRelations(chunk);
+                chunk.forEach(consumer);
+                chunk.clear();
+            }
+        });
+        fillRelations(chunk);
+        chunk.forEach(consumer);
+    }
+
+    /**
+     * Загружает фильмы по списку идентификаторов в том же порядке; отсутствующие id пропускаются.
+     */
+    public List<Film> getByIds(Collection<Integer> ids) {
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        Map<Integer, Film> index = new HashMap<>();
+        for (List<Integer> chunk : chunks(ids)) {
+            for (Film film : namedJdbcTemplate.query(sql + "where f.film_id in (:ids)",
+                    Map.of("ids", chunk), filmRowMapper())) {
+                index.put(film.getId(), film);
+            }
+        }
+        List<Film> films = new ArrayList<>(index.size());
+        for (Integer id : ids) {
+            Film film = index.get(id);
+            if (film != null) {
+                films.add(film);
+            }
+        }
+        fillRelations(films);
+        return films;
+    }
+
+    private void fillRelations(List<Film> films) {
+        if (films.isEmpty()) {
+            return;
+        }
+        Map<Integer, Film> index = new LinkedHashMap<>();
+        for (Film film : films) {
+            index.put(film.getId(), film);
+        }
+        RowMapper<Integer> filmKey = (rs, rowNum) -> rs.getInt("film_id");
+        for (List<Integer> chunk : chunks(index.keySet())) {
+            Map<String, List<Integer>> params = Map.of("ids", chunk);
+            namedJdbcTemplate.query("select film_id, genre_id from film_genre where film_id in (:ids)", params,
+                    GroupingResultSetExtractor.into(index, filmKey, (film, rs) -> {
+                        Genre genre = referenceSnapshot.getGenre(rs.getInt("genre_id"));
+                        if (genre != null) {
+                            film.getGenres().add(genre);
+                        }
+                    }));
+            namedJdbcTemplate.query("select film_id, director_id from film_director where film_id in (:ids)", params,
+                    GroupingResultSetExtractor.into(index, filmKey, (film, rs) -> {
+                        Director director = referenceSnapshot.getDirector(rs.getInt("director_id"));
+                        if (director != null) {
+                            film.getDirectors().add(director);
+                        }
+                    }));
+        }
+        fillRates(index);
+    }
+
+    /**
+     * Счётчики лайков из базы плюс ещё не записанные изменения буфера; оба читаются
+     * в одном окне без фиксации пакетов, чтобы пакет не учёлся дважды или ни разу.
+     */
+    private void fillRates(Map<Integer, Film> index) {
+        if (!likeWriteBuffer.isEnabled()) {
+            countLikes(index);
+            return;
+        }
+        likeWriteBuffer.readCommitted(() -> {
+            countLikes(index);
+            index.values().forEach(film -> film.setRate(film.getRate() + likeWriteBuffer.pendingDelta(film.getId())));
+        });
+    }
+
+    private void countLikes(Map<Integer, Film> index) {
+        RowMapper<Integer> filmKey = (rs, rowNum) -> rs.getInt("film_id");
+        for (List<Integer> chunk : chunks(index.keySet())) {
+            namedJdbcTemplate.query("select film_id, count(user_id) as likes_count " +
+                    "from likes " +
+                    "where film_id in (:ids) " +
+                    "group by film_id", Map.of("ids", chunk),
+                    GroupingResultSetExtractor.into(index, filmKey,
+                            (film, rs) -> film.setRate(rs.getInt("likes_count"))));
+        }
+    }
+
+    private List<List<Integer>> chunks(Collection<Integer> ids) {
+        List<Integer> list = new ArrayList<>(ids);
+        List<List<Integer>> chunks = new ArrayList<>();
+        for (int from = 0; from < list.size(); from += ID_CHUNK_SIZE) {
+            chunks.add(list.subList(from, Math.min(from + ID_CHUNK_SIZE, list.size())));
+        }
+        return chunks;
+    }
+
+    private RowMapper<Film> filmRowMapper() {
+        return (rs, rowNum) -> {
+            int mpaId = rs.getInt("rating_mpa_id");
+            Mpa mpa = referenceSnapshot.getRating(mpaId);
+            return new Film(rs.getInt("film_id"),
+                    rs.getString("film_name"),
+                    rs.getString("film_description"),
+                    rs.getDate("film_release_date").toLocalDate(),
+                    rs.getInt("film_duration"),
+                    mpa != null ? mpa : new Mpa(mpaId, null));
+        };
+    }
+}
@@ -0,0 +1,87 @@
+package ru.yandex.practicum.filmorate.storage.film;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Потокобезопасный рейтинг фильмов по количеству лайков (при равенстве — по возрастанию id).
+ * Изменения одного фильма сериализуются через compute, чтение top-K не блокируется.
+ */
+public class FilmRanking {
+    private static final Comparator<Entry> ORDER = Comparator.comparingInt(Entry::getLikes).reversed()
+            .thenComparingInt(Entry::getFilmId);
+
+    private final Map<Integer, Integer> likes = new ConcurrentHashMap<>();
+    private final NavigableSet<Entry> ranking = new ConcurrentSkipListSet<>(ORDER);
+
+    public void put(int filmId, int count) {
+        likes.compute(filmId, (id, old) -> move(id, old, count));
+    }
+
+    public void changeLikes(int filmId, int delta) {
+        likes.computeIfPresent(filmId, (id, old) -> move(id, old, Math.max(0, old + delta)));
+    }
+
+    public void remove(int filmId) {
+        likes.computeIfPresent(filmId, (id, old) -> {
+            ranking.remove(new Entry(id, old));
+            return null;
+        });
+    }
+
+    public boolean contains(int filmId) {
+        return likes.containsKey(filmId);
+    }
+
+    public int getLikes(int filmId) {
+        return likes.getOrDefault(filmId, 0);
+    }
+
+    public int size() {
+        return likes.size();
+    }
+
+    public List<Integer> top(int count) {
+        Set<Integer> ids = new LinkedHashSet<>();
+        for (Entry entry : ranking) {
+            if (ids.size() >= count) {
+                break;
+            }
+            ids.add(entry.getFilmId());
+        }
+        return new ArrayList<>(ids);
+    }
+
+    private Integer move(int filmId, Integer old, int count) {
+        ranking.add(new Entry(filmId, count));
+        if (old != null && old != count) {
+            ranking.remove(new Entry(filmId, old));
+        }
+        return count;
+    }
+
+    private static final class Entry {
+        private final int filmId;
+        private final int likes;
+
+        private Entry(int filmId, int likes) {
+            this.filmId = filmId;
+            this.likes = likes;
+        }
+
+        private int getFilmId() {
+            return filmId;
+        }
+
+        private int getLikes() {
+            return likes;
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package ru.yandex.practicum.filmorate.storage.film;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.model.Director;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.storage.ReferenceSnapshot;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Инвертированный триграммный индекс по названиям фильмов и именам режиссёров.
+ * Поиск подстроки пересекает списки фильмов по триграммам запроса и проверяет
+ * только оставшихся кандидатов; запросы короче триграммы проверяются перебором.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class FilmSearchIndex {
+    private static final int GRAM = 3;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final PopularityLeaderboard popularityLeaderboard;
+    private final ReferenceSnapshot referenceSnapshot;
+    private final Map<Integer, String> titles = new ConcurrentHashMap<>();
+    private final Map<Integer, String> directorNames = new ConcurrentHashMap<>();
+    private final Map<Integer, Set<Integer>> directorFilms = new ConcurrentHashMap<>();
+    private final Map<Integer, Set<Integer>> filmDirectors = new ConcurrentHashMap<>();
+    private final PostingIndex titleIndex = new PostingIndex();
+    private final PostingIndex directorIndex = new PostingIndex();
+
+    @PostConstruct
+    public void load() {
+        jdbcTemplate.query("select film_id, film_name from films", rs -> {
+            putTitle(rs.getInt("film_id"), rs.getString("film_name"));
+        });
+        for (Director director : referenceSnapshot.getDirectors()) {
+            putDirectorName(director.getId(), director.getName());
+        }
+        jdbcTemplate.query("select film_id, director_id from film_director", rs -> {
+            link(rs.getInt("film_id"), rs.getInt("director_id"));
+        });
+        log.info("Film search index loaded: {} films, {} directors", titles.size(), directorNames.size());
+    }
+
+    public synchronized void putFilm(Film film) {
+        removeFilm(film.getId());
+        putTitle(film.getId(), film.getName());
+        for (Director director : film.getDirectors()) {
+            link(film.getId(), director.getId());
+        }
+    }
+
+    public synchronized void removeFilm(int filmId) {
+        String title = titles.remove(filmId);
+        if (title != null) {
+            titleIndex.remove(filmId, title);
+        }
+        Set<Integer> directors = filmDirectors.remove(filmId);
+        if (directors != null) {
+            for (Integer directorId : directors) {
+                directorFilms.computeIfPresent(directorId, (id, films) -> {
+                    films.remove(filmId);
+                    return films.isEmpty() ? null : films;
+                });
+            }
+        }
+    }
+
+    public synchronized void putDirector(Director director) {
+        String oldName = directorNames.get(director.getId());
+        if (oldName != null) {
+            directorIndex.remove(director.getId(), oldName);
+        }
+        putDirectorName(director.getId(), director.getName());
+    }
+
+    public synchronized void removeDirector(int directorId) {
+        String name = directorNames.remove(directorId);
+        if (name != null) {
+            directorIndex.remove(directorId, name);
+        }
+        Set<Integer> films = directorFilms.remove(directorId);
+        if (films != null) {
+            for (Integer filmId : films) {
+                filmDirectors.computeIfPresent(filmId, (id, directors) -> {
+                    directors.remove(directorId);
+                    return directors.isEmpty() ? null : directors;
+                });
+            }
+        }
+    }
+
+    /**
+     * Возвращает страницу id фильмов, найденных по названию и/или режиссёру,
+     * упорядоченных по убыванию количества лайков.
+     */
+    public List<Integer> search(String query, boolean byTitle, boolean byDirector, int offset, int limit) {
+        String needle = query.toLowerCase(Locale.ENGLISH);
+        Set<Integer> found = new HashSet<>();
+        if (byTitle) {
+            found.addAll(titleIndex.find(needle, titles));
+        }
+        if (byDirector) {
+            for (Integer directorId : directorIndex.find(needle, directorNames)) {
+                found.addAll(directorFilms.getOrDefault(directorId, Set.of()));
+            }
+        }
+        return found.stream()
+                .sorted(popularityLeaderboard.byLikes(found))
+                .skip(offset)
+                .limit(limit)
+                .collect(Collectors.toList());
+    }
+
+    private void putTitle(int filmId, String title) {
+        String text = title.toLowerCase(Locale.ENGLISH);
+        titles.put(filmId, text);
+        titleIndex.add(filmId, text);
+    }
+
+    private void putDirectorName(int directorId, String name) {
+        String text = name.toLowerCase(Locale.ENGLISH);
+        directorNames.put(directorId, text);
+        directorIndex.add(directorId, text);
+    }
+
+    private void link(int filmId, int directorId) {
+        filmDirectors.computeIfAbsent(filmId, id -> ConcurrentHashMap.newKeySet()).add(directorId);
+        directorFilms.computeIfAbsent(directorId, id -> ConcurrentHashMap.newKeySet()).add(filmId);
+    }
+
+    private static final class PostingIndex {
+        private final Map<String, Set<Integer>> postings = new ConcurrentHashMap<>();
+
+        private void add(int id, String text) {
+            for (String gram : grams(text)) {
+                postings.computeIfAbsent(gram, key -> ConcurrentHashMap.newKeySet()).add(id);
+            }
+        }
+
+        private void remove(int id, String text) {
+            for (String gram : grams(text)) {
+                postings.computeIfPresent(gram, (key, ids) -> {
+                    ids.remove(id);
+                    return ids.isEmpty() ? null : ids;
+                });
+            }
+        }
+
+        private Set<Integer> find(String needle, Map<Integer, String> texts) {
+            Set<Integer> found = new HashSet<>();
+            if (needle.length() < GRAM) {
+                texts.forEach((id, text) -> {
+                    if (text.contains(needle)) {
+                        found.add(id);
+                    }
+                });
+                return found;
+            }
+            List<Set<Integer>> lists = new ArrayList<>();
+            for (String gram : grams(needle)) {
+                Set<Integer> ids = postings.get(gram);
+                if (ids == null) {
+                    return found;
+                }
+                lists.add(ids);
+            }
+            lists.sort(Comparator.comparingInt(Set::size));
+            candidates:
+            for (Integer id : lists.get(0)) {
+                for (int i = 1; i < lists.size(); i++) {
+                    if (!lists.get(i).contains(id)) {
+                        continue candidates;
+                    }
+                }
+                String text = texts.get(id);
+                if (text != null && text.contains(needle)) {
+                    found.add(id);
+                }
+            }
+            return found;
+        }
+
+        private static Set<String> grams(String text) {
+            Set<String> grams = new HashSet<>();
+            for (int i = 0; i + GRAM <= text.length(); i++) {
+                grams.add(text.substring(i, i + GRAM));
+            }
+            return grams;
+        }
+    }
+}
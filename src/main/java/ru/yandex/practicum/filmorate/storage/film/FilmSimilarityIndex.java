@@ -0,0 +1,238 @@
+package ru.yandex.practicum.filmorate.storage.film;
+
+import lombok.extern.slf4j.Slf4j;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.storage.ExistenceIndex;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Похожие фильмы по совместным лайкам: для каждого фильма хранится K ближайших соседей
+ * по косинусной мере |A ∩ B| / sqrt(|A| * |B|), где A и B — пользователи, лайкнувшие фильмы.
+ * Строки считаются параллельно через fork/join и хранятся в примитивных массивах.
+ * Фильмы, чья схожесть равна схожести K-го соседа, тоже попадают в строку, чтобы выбор
+ * среди равных делал вызывающий, а не порядок id.
+ * Изменение лайка помечает устаревшими строку самого фильма и строки его текущих соседей.
+ * Строки фильмов, у которых он есть в соседях, а у него они — нет, догоняют при изменении
+ * их собственных лайков, поэтому до этого схожесть A→B и B→A может расходиться.
+ * Фоновая задача пересчитывает устаревшие строки, до пересчёта отдаётся прежняя.
+ * Пустые строки тоже хранятся, чтобы фильм без соседей не пересчитывался на каждом запросе.
+ * Строка, посчитанная одновременно с удалением фильма, после записи сверяется с
+ * {@link ExistenceIndex} и снимается, чтобы не вернуть удалённый фильм в индекс.
+ */
+@Slf4j
+@Component
+public class FilmSimilarityIndex {
+    private static final int SPLIT_THRESHOLD = 64;
+
+    private final LikeSetStore likeSetStore;
+    private final ExistenceIndex existenceIndex;
+    private final int neighbours;
+    private final long refreshIntervalMs;
+    private final Map<Integer, Row> rows = new ConcurrentHashMap<>();
+    private final Set<Integer> stale = ConcurrentHashMap.newKeySet();
+    private ScheduledExecutorService refresher;
+
+    public FilmSimilarityIndex(LikeSetStore likeSetStore,
+                               ExistenceIndex existenceIndex,
+                               @Value("${filmorate.similar.neighbours:50}") int neighbours,
+                               @Value("${filmorate.similar.refresh-interval-ms:1000}") long refreshIntervalMs) {
+        this.likeSetStore = likeSetStore;
+        this.existenceIndex = existenceIndex;
+        this.neighbours = neighbours;
+        this.refreshIntervalMs = refreshIntervalMs;
+    }
+
+    @PostConstruct
+    public void load() {
+        int[] filmIds = likeSetStore.getLikedFilms().toArray();
+        ForkJoinPool.commonPool().invoke(new RowsTask(filmIds, 0, filmIds.length, false));
+        log.info("Film similarity index loaded: {} films", rows.size());
+        refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "film-similarity-refresher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        refresher.scheduleWithFixedDelay(this::refreshStale, refreshIntervalMs, refreshIntervalMs,
+                TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        refresher.shutdownNow();
+    }
+
+    /**
+     * Помечает устаревшими строку фильма, у которого изменился лайк, и строки его соседей.
+     */
+    public void likeChanged(int filmId) {
+        stale.add(filmId);
+        Row row = rows.get(filmId);
+        if (row != null) {
+            for (int neighbourId : row.filmIds) {
+                stale.add(neighbourId);
+            }
+        }
+    }
+
+    /**
+     * Помечает устаревшими строки фильмов, которые лайкал удалённый пользователь.
+     */
+    public void userRemoved(RoaringBitmap likedFilms) {
+        likedFilms.forEach((int filmId) -> stale.add(filmId));
+    }
+
+    public void removeFilm(int filmId) {
+        Row row = rows.remove(filmId);
+        stale.remove(filmId);
+        if (row != null) {
+            for (int neighbourId : row.filmIds) {
+                stale.add(neighbourId);
+            }
+        }
+    }
+
+    /**
+     * Соседи фильма по убыванию схожести, включая равных K-му. Массивы общие, изменять их нельзя.
+     */
+    public Row getNeighbours(int filmId) {
+        Row row = rows.get(filmId);
+        if (row == null) {
+            row = computeRow(filmId);
+            store(filmId, row);
+        }
+        return row;
+    }
+
+    private void store(int filmId, Row row) {
+        rows.put(filmId, row);
+        if (!existenceIndex.hasFilm(filmId)) {
+            rows.remove(filmId, row);
+        }
+    }
+
+    private void refreshStale() {
+        try {
+            if (stale.isEmpty()) {
+                return;
+            }
+            int[] filmIds = stale.stream().mapToInt(Integer::intValue).toArray();
+            for (int filmId : filmIds) {
+                stale.remove(filmId);
+            }
+            ForkJoinPool.commonPool().invoke(new RowsTask(filmIds, 0, filmIds.length, true));
+            log.debug("Refreshed similarity rows of {} films", filmIds.length);
+        } catch (RuntimeException e) {
+            log.error("Film similarity refresh failed", e);
+        }
+    }
+
+    private Row computeRow(int filmId) {
+        RoaringBitmap likers = likeSetStore.getLikers(filmId);
+        if (likers.isEmpty()) {
+            return Row.EMPTY;
+        }
+        RoaringBitmap candidates = new RoaringBitmap();
+        likers.forEach((int userId) -> candidates.or(likeSetStore.getLikes(userId)));
+        candidates.remove(filmId);
+
+        int[] candidateIds = candidates.toArray();
+        float[] candidateScores = new float[candidateIds.length];
+        double likersCount = likers.getCardinality();
+        for (int i = 0; i < candidateIds.length; i++) {
+            RoaringBitmap other = likeSetStore.getLikers(candidateIds[i]);
+            int common = RoaringBitmap.andCardinality(likers, other);
+            candidateScores[i] = common == 0 ? 0 : (float) (common / Math.sqrt(likersCount * other.getCardinality()));
+        }
+
+        Integer[] order = new Integer[candidateIds.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> candidateScores[a] != candidateScores[b]
+                ? Float.compare(candidateScores[b], candidateScores[a])
+                : Integer.compare(candidateIds[a], candidateIds[b]));
+        int size = 0;
+        while (size < order.length && size < neighbours && candidateScores[order[size]] > 0) {
+            size++;
+        }
+        while (size > 0 && size < order.length
+                && candidateScores[order[size]] == candidateScores[order[size - 1]]) {
+            size++;
+        }
+        int[] filmIds = new int[size];
+        float[] scores = new float[size];
+        for (int i = 0; i < size; i++) {
+            filmIds[i] = candidateIds[order[i]];
+            scores[i] = candidateScores[order[i]];
+        }
+        return new Row(filmIds, scores);
+    }
+
+    private final class RowsTask extends RecursiveAction {
+        private final int[] filmIds;
+        private final int from;
+        private final int to;
+        private final boolean checkRemoved;
+
+        private RowsTask(int[] filmIds, int from, int to, boolean checkRemoved) {
+            this.filmIds = filmIds;
+            this.from = from;
+            this.to = to;
+            this.checkRemoved = checkRemoved;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SPLIT_THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    if (checkRemoved) {
+                        store(filmIds[i], computeRow(filmIds[i]));
+                    } else {
+                        rows.put(filmIds[i], computeRow(filmIds[i]));
+                    }
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new RowsTask(filmIds, from, middle, checkRemoved),
+                    new RowsTask(filmIds, middle, to, checkRemoved));
+        }
+    }
+
+    public static final class Row {
+        private static final Row EMPTY = new Row(new int[0], new float[0]);
+
+        private final int[] filmIds;
+        private final float[] scores;
+
+        private Row(int[] filmIds, float[] scores) {
+            this.filmIds = filmIds;
+            this.scores = scores;
+        }
+
+        public int size() {
+            return filmIds.length;
+        }
+
+        public int filmId(int index) {
+            return filmIds[index];
+        }
+
+        public float score(int index) {
+            return scores[index];
+        }
+    }
+}
@@ -1,9 +1,9 @@
 package ru.yandex.practicum.filmorate.storage.film;
 
 import ru.yandex.practicum.filmorate.model.Film;
-import ru.yandex.practicum.filmorate.model.enums.SortBy;
 
 import java.util.List;
+import java.util.function.Consumer;
 
 public interface FilmStorage {
 
@@ -11,27 +11,24 @@ public interface FilmStorage {
 
     List<Film> getListAllFilms();
 
-    List<Film> getAllFilmsByDirectorId(int directorId, SortBy sortBy);
+    List<Film> getFilmsPage(int afterId, int limit);
 
-    Film addFilm(Film film);
-
-    Film deleteFilm(int id);
-
-    Film updateFilm(Film film);
+    void streamAllFilms(Consumer<Film> consumer);
 
-    void addLike(int userId, int filmId);
+    List<Film> getFilmsByIds(List<Integer> ids);
 
-    void deleteLike(int userId, int filmId);
-
-    List<Film> topFilms(int count);
+    Film addFilm(Film film);
 
-    List<Film> searchFilms(String query, String by);
+    /**
+     * Добавляет фильмы одной транзакцией и проставляет им сгенерированные id.
+     */
+    List<Film> addFilms(List<Film> films);
 
-    List<Film> topFilmsByYear(int count, int year);
+    Film deleteFilm(int id);
 
-    List<Film> topFilmsByGenre(int count, int genreId);
+    Film updateFilm(Film film);
 
-    List<Film> topFilmsByYearAndGenre(int count, int year, int genreId);
+    boolean addLike(int userId, int filmId);
 
-    List<Film> getCommonFilms(int userId, int friendId);
+    boolean deleteLike(int userId, int filmId);
 }
\ No newline at end of file
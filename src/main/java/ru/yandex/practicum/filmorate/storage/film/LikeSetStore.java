@@ -0,0 +1,172 @@
+package ru.yandex.practicum.filmorate.storage.film;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Разреженная матрица лайков "пользователь — фильм" в виде сжатых битовых карт:
+ * по строкам (фильмы пользователя) и по столбцам (пользователи, лайкнувшие фильм).
+ * Строка изменяется на месте под своей блокировкой записи, поэтому лайк стоит O(1), а не копию
+ * всей строки. Читатель получает копию строки, снятую под блокировкой чтения.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class LikeSetStore {
+    private final JdbcTemplate jdbcTemplate;
+    private final Map<Integer, Row> likesByUser = new ConcurrentHashMap<>();
+    private final Map<Integer, Row> likersByFilm = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void load() {
+        jdbcTemplate.query("select user_id, film_id from likes", rs -> {
+            int userId = rs.getInt("user_id");
+            int filmId = rs.getInt("film_id");
+            likesByUser.computeIfAbsent(userId, id -> new Row()).columns.add(filmId);
+            likersByFilm.computeIfAbsent(filmId, id -> new Row()).columns.add(userId);
+        });
+        likesByUser.values().forEach(row -> row.columns.runOptimize());
+        likersByFilm.values().forEach(row -> row.columns.runOptimize());
+        log.info("Like sets loaded: {} users, {} films", likesByUser.size(), likersByFilm.size());
+    }
+
+    public void addLike(int userId, int filmId) {
+        add(likesByUser, userId, filmId);
+        add(likersByFilm, filmId, userId);
+    }
+
+    public void deleteLike(int userId, int filmId) {
+        remove(likesByUser, userId, filmId);
+        remove(likersByFilm, filmId, userId);
+    }
+
+    /**
+     * Удаляет лайки пользователя и возвращает фильмы, которые он лайкал.
+     */
+    public RoaringBitmap removeUser(int userId) {
+        Row likes = likesByUser.remove(userId);
+        if (likes == null) {
+            return new RoaringBitmap();
+        }
+        RoaringBitmap films = likes.snapshot();
+        films.forEach((int filmId) -> remove(likersByFilm, filmId, userId));
+        return films;
+    }
+
+    public void removeFilm(int filmId) {
+        Row likers = likersByFilm.remove(filmId);
+        if (likers != null) {
+            likers.snapshot().forEach((int userId) -> remove(likesByUser, userId, filmId));
+        }
+    }
+
+    /**
+     * Копия фильмов, лайкнутых пользователем.
+     */
+    public RoaringBitmap getLikes(int userId) {
+        return snapshot(likesByUser, userId);
+    }
+
+    /**
+     * Копия пользователей, лайкнувших фильм.
+     */
+    public RoaringBitmap getLikers(int filmId) {
+        return snapshot(likersByFilm, filmId);
+    }
+
+    /**
+     * Фильмы, у которых есть хотя бы один лайк.
+     */
+    public RoaringBitmap getLikedFilms() {
+        RoaringBitmap films = new RoaringBitmap();
+        likersByFilm.keySet().forEach(films::add);
+        return films;
+    }
+
+    public boolean hasLiked(int userId, int filmId) {
+        Row likes = likesByUser.get(userId);
+        return likes != null && likes.contains(filmId);
+    }
+
+    public int overlap(int userId, int otherId) {
+        return RoaringBitmap.andCardinality(getLikes(userId), getLikes(otherId));
+    }
+
+    public RoaringBitmap commonLikes(int userId, int otherId) {
+        return RoaringBitmap.and(getLikes(userId), getLikes(otherId));
+    }
+
+    private static RoaringBitmap snapshot(Map<Integer, Row> rows, int row) {
+        Row columns = rows.get(row);
+        return columns == null ? new RoaringBitmap() : columns.snapshot();
+    }
+
+    private static void add(Map<Integer, Row> rows, int row, int column) {
+        rows.compute(row, (id, old) -> {
+            Row columns = old == null ? new Row() : old;
+            columns.add(column);
+            return columns;
+        });
+    }
+
+    private static void remove(Map<Integer, Row> rows, int row, int column) {
+        rows.computeIfPresent(row, (id, old) -> old.remove(column) ? null : old);
+    }
+
+    /**
+     * Строка матрицы. Писатели одной строки уже сериализованы compute карты строк,
+     * блокировка нужна, чтобы читатель не увидел карту посреди изменения.
+     */
+    private static final class Row {
+        private final StampedLock lock = new StampedLock();
+        private final RoaringBitmap columns = new RoaringBitmap();
+
+        private void add(int column) {
+            long stamp = lock.writeLock();
+            try {
+                columns.add(column);
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        /**
+         * Удаляет столбец и сообщает, опустела ли строка.
+         */
+        private boolean remove(int column) {
+            long stamp = lock.writeLock();
+            try {
+                columns.remove(column);
+                return columns.isEmpty();
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        private boolean contains(int column) {
+            long stamp = lock.readLock();
+            try {
+                return columns.contains(column);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        private RoaringBitmap snapshot() {
+            long stamp = lock.readLock();
+            try {
+                return columns.clone();
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package ru.yandex.practicum.filmorate.storage.film;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Отложенная запись лайков. Лайк и снятие лайка сохраняются в буфер в памяти,
+ * где операции над одной парой пользователь-фильм схлопываются (лайк и последующее снятие
+ * взаимно уничтожаются, повторные лайки сливаются), а фоновый поток раз в N миллисекунд
+ * или при накоплении M записей переносит буфер в базу пакетными вставками и удалениями
+ * с одним пересчётом film_rating на фильм. При остановке приложения буфер сбрасывается.
+ * Фиксация пакета и снятие его из памяти идут под блокировкой фиксации: чтение счётчиков
+ * из базы вместе с {@link #pendingDelta} внутри {@link #readCommitted} не учтёт пакет дважды.
+ */
+@Slf4j
+@Component
+public class LikeWriteBuffer {
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final long flushIntervalMs;
+    private final int flushSize;
+    private final ReadWriteLock swapLock = new ReentrantReadWriteLock();
+    private final ReentrantReadWriteLock commitLock = new ReentrantReadWriteLock();
+    private volatile Generation current = new Generation();
+    private volatile Generation inFlight = new Generation();
+    private volatile long flushSeq;
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private ScheduledExecutorService flusher;
+
+    public LikeWriteBuffer(JdbcTemplate jdbcTemplate,
+                           TransactionTemplate transactionTemplate,
+                           @Value("${filmorate.likes.write-behind.enabled:false}") boolean enabled,
+                           @Value("${filmorate.likes.write-behind.flush-interval-ms:200}") long flushIntervalMs,
+                           @Value("${filmorate.likes.write-behind.flush-size:1000}") int flushSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.enabled = enabled;
+        this.flushIntervalMs = flushIntervalMs;
+        this.flushSize = flushSize;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "like-write-behind");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+        log.info("Like write-behind enabled: flush every {} ms or {} entries", flushIntervalMs, flushSize);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (flusher == null) {
+            return;
+        }
+        flusher.shutdown();
+        flusher.awaitTermination(10, TimeUnit.SECONDS);
+        flush();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public boolean addLike(int userId, int filmId) {
+        return record(userId, filmId, true);
+    }
+
+    public boolean deleteLike(int userId, int filmId) {
+        return record(userId, filmId, false);
+    }
+
+    /**
+     * Изменение количества лайков фильма, ещё не записанное в базу.
+     */
+    public int pendingDelta(int filmId) {
+        swapLock.readLock().lock();
+        try {
+            return current.deltas.getOrDefault(filmId, 0) + inFlight.deltas.getOrDefault(filmId, 0);
+        } finally {
+            swapLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Выполняет чтение, во время которого ни один пакет не фиксируется и не снимается из памяти.
+     * Сброс ждёт только завершения таких чтений, сами чтения ждут только фиксации.
+     */
+    public void readCommitted(Runnable read) {
+        commitLock.readLock().lock();
+        try {
+            read.run();
+        } finally {
+            commitLock.readLock().unlock();
+        }
+    }
+
+    public synchronized void flush() {
+        flushScheduled.set(false);
+        swapLock.writeLock().lock();
+        try {
+            inFlight.merge(current);
+            current = new Generation();
+        } finally {
+            swapLock.writeLock().unlock();
+        }
+        Generation batch = inFlight;
+        if (batch.likes.isEmpty()) {
+            batch.deltas.clear();
+            return;
+        }
+        List<Object[]> inserts = new ArrayList<>();
+        List<Object[]> deletes = new ArrayList<>();
+        List<Object[]> counters = new ArrayList<>();
+        batch.likes.forEach((key, liked) -> {
+            int filmId = (int) (key >>> 32);
+            int userId = (int) (long) key;
+            if (liked) {
+                inserts.add(new Object[]{userId, filmId, userId, filmId});
+            } else {
+                deletes.add(new Object[]{userId, filmId});
+            }
+        });
+        batch.deltas.keySet().forEach(filmId -> counters.add(new Object[]{filmId, filmId}));
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                jdbcTemplate.batchUpdate("insert into likes (user_id, film_id) " +
+                        "select u.user_id, f.film_id from users u, films f " +
+                        "where u.user_id = ? and f.film_id = ? " +
+                        "and not exists (select 1 from likes where user_id = ? and film_id = ?)", inserts);
+                jdbcTemplate.batchUpdate("delete from likes where user_id = ? and film_id = ?", deletes);
+                jdbcTemplate.batchUpdate("update films set film_rating = " +
+                        "(select count(*) from likes where film_id = ?) where film_id = ?", counters);
+                commitLock.writeLock().lock();
+            });
+            swapLock.writeLock().lock();
+            try {
+                inFlight = new Generation();
+                flushSeq++;
+            } finally {
+                swapLock.writeLock().unlock();
+            }
+        } finally {
+            if (commitLock.isWriteLockedByCurrentThread()) {
+                commitLock.writeLock().unlock();
+            }
+        }
+        log.debug("Flushed {} likes and {} unlikes for {} films", inserts.size(), deletes.size(), counters.size());
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            log.error("Like write-behind flush failed, will retry", e);
+        }
+    }
+
+    /**
+     * Проверка лайка в базе идёт до захвата блокировки и вне compute, чтобы запрос не держал
+     * ни ячейку карты, ни сброс. Если за это время сброс записал пакет, проверка повторяется.
+     */
+    private boolean record(int userId, int filmId, boolean liked) {
+        long key = ((long) filmId << 32) | (userId & 0xFFFFFFFFL);
+        while (true) {
+            long seq = flushSeq;
+            Boolean flushing = inFlight.likes.get(key);
+            boolean probed = flushing != null ? flushing : likedInDatabase(userId, filmId);
+            boolean[] changed = new boolean[1];
+            Generation generation;
+            swapLock.readLock().lock();
+            try {
+                if (seq != flushSeq) {
+                    continue;
+                }
+                generation = current;
+                generation.likes.compute(key, (k, pending) -> {
+                    Boolean base = inFlight.likes.get(k);
+                    boolean committed = base != null ? base : probed;
+                    boolean effective = pending != null ? pending : committed;
+                    if (effective == liked) {
+                        return pending;
+                    }
+                    changed[0] = true;
+                    generation.deltas.merge(filmId, liked ? 1 : -1, Integer::sum);
+                    return liked == committed ? null : liked;
+                });
+            } finally {
+                swapLock.readLock().unlock();
+            }
+            if (generation.likes.size() >= flushSize && !flusher.isShutdown()
+                    && flushScheduled.compareAndSet(false, true)) {
+                flusher.execute(this::flushQuietly);
+            }
+            return changed[0];
+        }
+    }
+
+    private boolean likedInDatabase(int userId, int filmId) {
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject("select " +
+                "exists(select 1 from likes where user_id = ? and film_id = ?)", Boolean.class, userId, filmId));
+    }
+
+    private static final class Generation {
+        private final Map<Long, Boolean> likes = new ConcurrentHashMap<>();
+        private final Map<Integer, Integer> deltas = new ConcurrentHashMap<>();
+
+        private void merge(Generation newer) {
+            likes.putAll(newer.likes);
+            newer.deltas.forEach((filmId, delta) -> deltas.merge(filmId, delta, Integer::sum));
+        }
+    }
+}
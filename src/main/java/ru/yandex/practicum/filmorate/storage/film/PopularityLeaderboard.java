@@ -0,0 +1,148 @@
+package ru.yandex.practicum.filmorate.storage.film;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Genre;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Рейтинг популярности фильмов в памяти: общий и по срезам "жанр", "год выпуска" и "жанр и год".
+ * Заполняется из таблиц films, film_genre и likes при старте и обновляется инкрементально
+ * при изменении лайков, жанров и даты выпуска фильма.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class PopularityLeaderboard {
+    private final JdbcTemplate jdbcTemplate;
+    private final FilmRanking ranking = new FilmRanking();
+    private final Map<Integer, FilmRanking> byGenre = new ConcurrentHashMap<>();
+    private final Map<Integer, FilmRanking> byYear = new ConcurrentHashMap<>();
+    private final Map<Long, FilmRanking> byYearAndGenre = new ConcurrentHashMap<>();
+    private final Map<Integer, Facets> facets = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void load() {
+        Map<Integer, List<Integer>> genres = new HashMap<>();
+        jdbcTemplate.query("select film_id, genre_id from film_genre", rs -> {
+            genres.computeIfAbsent(rs.getInt("film_id"), id -> new ArrayList<>()).add(rs.getInt("genre_id"));
+        });
+        jdbcTemplate.query("select f.film_id, extract(YEAR from f.film_release_date) as release_year, " +
+                "count(l.user_id) as likes_count " +
+                "from films f " +
+                "left join likes l on f.film_id = l.film_id " +
+                "group by f.film_id", rs -> {
+            int filmId = rs.getInt("film_id");
+            int[] genreIds = genres.getOrDefault(filmId, List.of()).stream().mapToInt(Integer::intValue).toArray();
+            putFilm(filmId, new Facets(rs.getInt("release_year"), genreIds), rs.getInt("likes_count"));
+        });
+        log.info("Popularity leaderboard loaded: {} films", ranking.size());
+    }
+
+    public void addFilm(Film film) {
+        putFilm(film.getId(), Facets.of(film), 0);
+    }
+
+    public void updateFilm(Film film) {
+        putFilm(film.getId(), Facets.of(film), null);
+    }
+
+    public void removeFilm(int filmId) {
+        facets.computeIfPresent(filmId, (id, old) -> {
+            forEachFacet(old, facet -> facet.remove(id));
+            ranking.remove(id);
+            return null;
+        });
+    }
+
+    public void changeLikes(int filmId, int delta) {
+        facets.computeIfPresent(filmId, (id, current) -> {
+            ranking.changeLikes(id, delta);
+            forEachFacet(current, facet -> facet.changeLikes(id, delta));
+            return current;
+        });
+    }
+
+    public int getLikes(int filmId) {
+        return ranking.getLikes(filmId);
+    }
+
+    /**
+     * Порядок фильмов по убыванию лайков, при равенстве — по возрастанию id. Лайки читаются
+     * один раз до сортировки: счётчики меняются конкурентно, а сортировка требует
+     * неизменного порядка и иначе может упасть на нарушении контракта сравнения.
+     */
+    public Comparator<Integer> byLikes(Collection<Integer> filmIds) {
+        Map<Integer, Integer> likes = new HashMap<>(filmIds.size() * 2);
+        for (Integer filmId : filmIds) {
+            likes.put(filmId, getLikes(filmId));
+        }
+        return Comparator.<Integer>comparingInt(likes::get).reversed().thenComparingInt(Integer::intValue);
+    }
+
+    public List<Integer> top(int count, Integer genreId, Integer year) {
+        FilmRanking facet;
+        if (genreId == null && year == null) {
+            facet = ranking;
+        } else if (genreId == null) {
+            facet = byYear.get(year);
+        } else if (year == null) {
+            facet = byGenre.get(genreId);
+        } else {
+            facet = byYearAndGenre.get(yearAndGenre(year, genreId));
+        }
+        return facet == null ? new ArrayList<>() : facet.top(count);
+    }
+
+    private void putFilm(int filmId, Facets newFacets, Integer likesCount) {
+        facets.compute(filmId, (id, old) -> {
+            int likes = likesCount != null ? likesCount : ranking.getLikes(id);
+            if (old != null) {
+                forEachFacet(old, facet -> facet.remove(id));
+            }
+            ranking.put(id, likes);
+            forEachFacet(newFacets, facet -> facet.put(id, likes));
+            return newFacets;
+        });
+    }
+
+    private void forEachFacet(Facets film, Consumer<FilmRanking> action) {
+        action.accept(byYear.computeIfAbsent(film.year, year -> new FilmRanking()));
+        for (int genreId : film.genreIds) {
+            action.accept(byGenre.computeIfAbsent(genreId, genre -> new FilmRanking()));
+            action.accept(byYearAndGenre.computeIfAbsent(yearAndGenre(film.year, genreId),
+                    key -> new FilmRanking()));
+        }
+    }
+
+    private static long yearAndGenre(int year, int genreId) {
+        return ((long) year << 32) | (genreId & 0xFFFFFFFFL);
+    }
+
+    private static final class Facets {
+        private final int year;
+        private final int[] genreIds;
+
+        private Facets(int year, int[] genreIds) {
+            this.year = year;
+            this.genreIds = genreIds;
+        }
+
+        private static Facets of(Film film) {
+            return new Facets(film.getReleaseDate().getYear(),
+                    film.getGenres().stream().mapToInt(Genre::getId).distinct().toArray());
+        }
+    }
+}
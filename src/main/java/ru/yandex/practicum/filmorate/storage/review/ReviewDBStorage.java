@@ -1,9 +1,8 @@
 package ru.yandex.practicum.filmorate.storage.review;
 
 import lombok.AllArgsConstructor;
-import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
-import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.ResultSetExtractor;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.jdbc.support.KeyHolder;
 import org.springframework.stereotype.Component;
@@ -11,11 +10,9 @@ import ru.yandex.practicum.filmorate.exceptions.LikeOrDislikeForReviewAlreadyExi
 import ru.yandex.practicum.filmorate.exceptions.LikeOrDislikeNotFound;
 import ru.yandex.practicum.filmorate.exceptions.ReviewNotFoundException;
 import ru.yandex.practicum.filmorate.model.Review;
-import ru.yandex.practicum.filmorate.storage.film.FilmDBStorage;
-import ru.yandex.practicum.filmorate.storage.user.UserDBStorage;
+import ru.yandex.practicum.filmorate.storage.GroupingResultSetExtractor;
 
 import java.sql.PreparedStatement;
-import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Objects;
@@ -25,8 +22,6 @@ import java.util.stream.Collectors;
 @AllArgsConstructor
 public class ReviewDBStorage implements ReviewStorage {
     private final JdbcTemplate jdbcTemplate;
-    private final FilmDBStorage filmDBStorage;
-    private final UserDBStorage userDBStorage;
 
     private final String sqlGet = "SELECT r.review_id, " +
             "r.review_content, " +
@@ -37,10 +32,18 @@ public class ReviewDBStorage implements ReviewStorage {
             "rl.is_like, " +
             "rl.like_user_id FROM reviews r left join review_like rl on r.review_id = rl.review_id ";
 
+    @Override
+    public List<Integer> getReviewIdsByFilm(int filmId) {
+        return jdbcTemplate.queryForList("SELECT review_id FROM reviews WHERE film_id = ?", Integer.class, filmId);
+    }
+
+    @Override
+    public List<Integer> getReviewIdsByUser(int userId) {
+        return jdbcTemplate.queryForList("SELECT review_id FROM reviews WHERE user_id = ?", Integer.class, userId);
+    }
+
     @Override
     public Review addReview(Review review) {
-        filmDBStorage.getFilmById(review.getFilmId());
-        userDBStorage.getUserById(review.getUserId());
         String sqlQuery = "INSERT INTO reviews (review_content, review_is_positive, " +
                 "user_id, film_id, review_useful) values (?, ?, ?, ?, ?)";
         KeyHolder keyHolder = new GeneratedKeyHolder();
@@ -59,7 +62,6 @@ public class ReviewDBStorage implements ReviewStorage {
 
     @Override
     public Review updateReview(Review review) {
-        getReviewById(review.getReviewId());
         String sqlQuery = "UPDATE reviews SET " +
                 "review_content = ?, " +
                 "review_is_positive = ? " +
@@ -78,77 +80,51 @@ public class ReviewDBStorage implements ReviewStorage {
 
     @Override
     public List<Review> getReviewListWithParam(int filmId, int count) {
-        try {
-            if (filmId == 0) {
-                return jdbcTemplate.queryForObject(sqlGet + "ORDER BY r.review_useful DESC LIMIT ?",
-                        reviewRowMapper(), count);
-
-            } else {
-                String sqlQuery = sqlGet + "WHERE r.film_id = ? ORDER BY r.review_useful DESC" +
-                        " LIMIT ?";
-                return jdbcTemplate.queryForObject(sqlQuery, reviewRowMapper(), filmId, count);
-            }
-        } catch (EmptyResultDataAccessException e) {
-            return new ArrayList<>();
+        if (filmId == 0) {
+            return jdbcTemplate.query(sqlGet + "WHERE r.review_id IN (SELECT review_id FROM reviews " +
+                            "ORDER BY review_useful DESC LIMIT ?) ORDER BY r.review_useful DESC",
+                    reviewsExtractor(), count);
+        } else {
+            String sqlQuery = sqlGet + "WHERE r.review_id IN (SELECT review_id FROM reviews " +
+                    "WHERE film_id = ? ORDER BY review_useful DESC LIMIT ?) ORDER BY r.review_useful DESC";
+            return jdbcTemplate.query(sqlQuery, reviewsExtractor(), filmId, count);
         }
     }
 
 
     @Override
     public List<Review> getAllReviews() {
-        try {
-            return Objects.requireNonNull(jdbcTemplate.queryForObject(sqlGet, reviewRowMapper()))
-                    .stream()
-                    .sorted(Comparator.comparing(Review::getUseful))
-                    .collect(Collectors.toList());
-        } catch (EmptyResultDataAccessException e) {
-            return new ArrayList<>();
-        }
+        return Objects.requireNonNull(jdbcTemplate.query(sqlGet, reviewsExtractor()))
+                .stream()
+                .sorted(Comparator.comparing(Review::getUseful))
+                .collect(Collectors.toList());
     }
 
 
     @Override
     public Review getReviewById(int id) {
-        try {
-            String sqlQuery = sqlGet + "WHERE r.review_id = ?;";
-            List<Review> reviews = jdbcTemplate.queryForObject(sqlQuery, reviewRowMapper(), id);
-            return Objects.requireNonNull(reviews).get(0);
-        } catch (EmptyResultDataAccessException e) {
+        String sqlQuery = sqlGet + "WHERE r.review_id = ?;";
+        List<Review> reviews = jdbcTemplate.query(sqlQuery, reviewsExtractor(), id);
+        if (reviews == null || reviews.isEmpty()) {
             throw new ReviewNotFoundException(String.format("Review id %d not found", id));
         }
+        return reviews.get(0);
     }
 
-    private RowMapper<List<Review>> reviewRowMapper() {
-        return (rs, rowNum) -> {
-            List<Review> reviews = new ArrayList<>();
-            Review review = new Review(rs.getInt("review_id"),
-                    rs.getString("review_content"),
-                    rs.getBoolean("review_is_positive"),
-                    rs.getInt("user_id"),
-                    rs.getInt("film_id"),
-                    rs.getInt(("review_useful")));
-            do {
-                if (review.getReviewId() == rs.getInt("review_id")) {
-                    review.getLikes().put(rs.getInt("like_user_id"), rs.getBoolean("is_like"));
-                } else {
-                    review = new Review(rs.getInt("review_id"),
-                            rs.getString("review_content"),
-                            rs.getBoolean("review_is_positive"),
-                            rs.getInt("user_id"),
-                            rs.getInt("film_id"),
-                            rs.getInt(("review_useful")));
-                    review.getLikes().put(rs.getInt("like_user_id"), rs.getBoolean("is_like"));
-                }
-                if (!reviews
-                        .stream()
-                        .map(Review::getReviewId)
-                        .collect(Collectors.toList())
-                        .contains(review.getReviewId())) {
-                    reviews.add(review);
-                }
-            } while (rs.next());
-            return reviews;
-        };
+    private ResultSetExtractor<List<Review>> reviewsExtractor() {
+        return GroupingResultSetExtractor.grouping((rs, rowNum) -> rs.getInt("review_id"),
+                (rs, rowNum) -> new Review(rs.getInt("review_id"),
+                        rs.getString("review_content"),
+                        rs.getBoolean("review_is_positive"),
+                        rs.getInt("user_id"),
+                        rs.getInt("film_id"),
+                        rs.getInt("review_useful")),
+                (review, rs) -> {
+                    int likeUserId = rs.getInt("like_user_id");
+                    if (!rs.wasNull()) {
+                        review.getLikes().put(likeUserId, rs.getBoolean("is_like"));
+                    }
+                });
     }
 
     /** Попробовали предложенную вами реализацию. В механике разобрались, но она не работает в нашем случае.
@@ -17,6 +17,10 @@ public interface ReviewStorage {
 
     Review getReviewById(int id);
 
+    List<Integer> getReviewIdsByFilm(int filmId);
+
+    List<Integer> getReviewIdsByUser(int userId);
+
     Review addLikeToReview(int reviewId, int userId);
 
     Review addDislikeToReview(int reviewId, int userId);
@@ -0,0 +1,390 @@
+package ru.yandex.practicum.filmorate.storage.user;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Граф дружбы в памяти в формате CSR: друзья пользователя u — отсортированный отрезок
+ * targets[offsets[u] .. offsets[u + 1]). Строки пользователей, изменённых после последнего
+ * уплотнения, целиком лежат в оверлее; фоновая задача периодически собирает из CSR и оверлея
+ * новый CSR и подменяет его. Удалённые пользователи отфильтровываются при чтении только
+ * до ближайшего уплотнения: оно вычищает их из CSR и оставшихся строк оверлея и сбрасывает
+ * множество удалённых, так что чтение снова отдаёт строки без копирования.
+ */
+@Slf4j
+@Component
+public class FriendshipGraph {
+    private static final int[] EMPTY = new int[0];
+
+    private final JdbcTemplate jdbcTemplate;
+    private final long compactionIntervalMs;
+    private final Map<Integer, int[]> overlay = new ConcurrentHashMap<>();
+    private final Timer compactionTimer;
+    private volatile Csr csr = new Csr(new int[]{0}, EMPTY);
+    private volatile RoaringBitmap removedUsers = new RoaringBitmap();
+    private ScheduledExecutorService compactor;
+
+    public FriendshipGraph(JdbcTemplate jdbcTemplate,
+                           MeterRegistry meterRegistry,
+                           @Value("${filmorate.friends-graph.compaction-interval-ms:10000}") long compactionIntervalMs) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.compactionIntervalMs = compactionIntervalMs;
+        this.compactionTimer = meterRegistry.timer("filmorate.friends-graph.compaction.time");
+        Gauge.builder("filmorate.friends-graph.overlay", overlay, Map::size).register(meterRegistry);
+        Gauge.builder("filmorate.friends-graph.edges", this, graph -> graph.csr.targets.length)
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void load() {
+        CsrBuilder builder = new CsrBuilder(1024);
+        jdbcTemplate.query("select user1_id, user2_id from friendships order by user1_id, user2_id", rs -> {
+            builder.add(rs.getInt("user1_id"), rs.getInt("user2_id"));
+        });
+        csr = builder.build();
+        log.info("Friendship graph loaded: {} edges", csr.targets.length);
+        compactor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "friendship-graph-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        compactor.scheduleWithFixedDelay(this::compactQuietly, compactionIntervalMs, compactionIntervalMs,
+                TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        compactor.shutdownNow();
+    }
+
+    public void addFriend(int userId, int friendId) {
+        overlay.compute(userId, (id, row) -> {
+            int[] friends = row != null ? row : baseRow(id);
+            int index = Arrays.binarySearch(friends, friendId);
+            if (index >= 0) {
+                return friends;
+            }
+            int position = -index - 1;
+            int[] changed = new int[friends.length + 1];
+            System.arraycopy(friends, 0, changed, 0, position);
+            changed[position] = friendId;
+            System.arraycopy(friends, position, changed, position + 1, friends.length - position);
+            return changed;
+        });
+    }
+
+    public void removeFriend(int userId, int friendId) {
+        overlay.compute(userId, (id, row) -> {
+            int[] friends = row != null ? row : baseRow(id);
+            int index = Arrays.binarySearch(friends, friendId);
+            if (index < 0) {
+                return friends;
+            }
+            int[] changed = new int[friends.length - 1];
+            System.arraycopy(friends, 0, changed, 0, index);
+            System.arraycopy(friends, index + 1, changed, index, changed.length - index);
+            return changed;
+        });
+    }
+
+    /**
+     * Удаляет строку пользователя; рёбра к нему из чужих строк отбрасываются при чтении
+     * и при следующем уплотнении.
+     */
+    public synchronized void removeUser(int userId) {
+        RoaringBitmap removed = removedUsers.clone();
+        removed.add(userId);
+        removedUsers = removed;
+        overlay.put(userId, EMPTY);
+    }
+
+    /**
+     * Id друзей пользователя по возрастанию.
+     */
+    public List<Integer> getFriendIds(int userId) {
+        return toList(friends(userId));
+    }
+
+    /**
+     * Есть ли friendId в друзьях пользователя: двоичный поиск по строке без её копирования.
+     */
+    public boolean isFriend(int userId, int friendId) {
+        if (removedUsers.contains(friendId)) {
+            return false;
+        }
+        int[] row = overlay.get(userId);
+        if (row != null) {
+            return Arrays.binarySearch(row, friendId) >= 0;
+        }
+        Csr base = csr;
+        return Arrays.binarySearch(base.targets, base.start(userId), base.end(userId), friendId) >= 0;
+    }
+
+    /**
+     * Общие друзья слиянием двух отсортированных строк.
+     */
+    public List<Integer> getCommonFriendIds(int userId, int otherId) {
+        int[] left = friends(userId);
+        int[] right = friends(otherId);
+        List<Integer> common = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        while (i < left.length && j < right.length) {
+            if (left[i] < right[j]) {
+                i++;
+            } else if (left[i] > right[j]) {
+                j++;
+            } else {
+                common.add(left[i]);
+                i++;
+                j++;
+            }
+        }
+        return common;
+    }
+
+    /**
+     * До count друзей друзей, которые ещё не в друзьях у пользователя, по убыванию числа
+     * общих друзей, при равенстве — по возрастанию id.
+     */
+    public List<Integer> suggest(int userId, int count) {
+        RoaringBitmap removed = removedUsers;
+        int[] friends = friends(userId);
+        IntCounter mutual = new IntCounter(friends.length * 8);
+        for (int friendId : friends) {
+            int[] row = overlay.get(friendId);
+            if (row != null) {
+                mutual.incrementAll(row, 0, row.length);
+            } else {
+                Csr base = csr;
+                mutual.incrementAll(base.targets, base.start(friendId), base.end(friendId));
+            }
+        }
+        long[] ranked = new long[mutual.size];
+        int size = 0;
+        for (int slot = 0; slot < mutual.keys.length; slot++) {
+            int candidateId = mutual.keys[slot];
+            if (candidateId == 0 || candidateId == userId || Arrays.binarySearch(friends, candidateId) >= 0
+                    || removed.contains(candidateId)) {
+                continue;
+            }
+            ranked[size++] = (long) mutual.counts[slot] << 32 | (Integer.MAX_VALUE - candidateId);
+        }
+        Arrays.sort(ranked, 0, size);
+        List<Integer> ids = new ArrayList<>(Math.min(count, size));
+        for (int i = size - 1; i >= 0 && ids.size() < count; i--) {
+            ids.add(Integer.MAX_VALUE - (int) ranked[i]);
+        }
+        return ids;
+    }
+
+    /**
+     * Множество удалённых читается до строки: уплотнение сбрасывает его только после того,
+     * как опубликованы вычищенные CSR и оверлей.
+     */
+    private int[] friends(int userId) {
+        RoaringBitmap removed = removedUsers;
+        int[] row = overlay.get(userId);
+        if (row == null) {
+            row = baseRow(userId);
+        }
+        return removed.isEmpty() ? row : withoutRemoved(row, removed);
+    }
+
+    private static int[] withoutRemoved(int[] row, RoaringBitmap removed) {
+        return Arrays.stream(row).filter(id -> !removed.contains(id)).toArray();
+    }
+
+    private int[] baseRow(int userId) {
+        Csr base = csr;
+        return Arrays.copyOfRange(base.targets, base.start(userId), base.end(userId));
+    }
+
+    private void compactQuietly() {
+        try {
+            compactionTimer.record(this::compact);
+        } catch (RuntimeException e) {
+            log.error("Friendship graph compaction failed", e);
+        }
+    }
+
+    /**
+     * Собирает новый CSR из текущего и оверлея. Строки оверлея, изменённые во время
+     * сборки, остаются в оверлее до следующего уплотнения; удалённые пользователи вычищаются
+     * и из них, после чего множество удалённых сбрасывается. removeUser синхронизирован
+     * с уплотнением, поэтому новых удалений за время сборки не появляется.
+     */
+    private synchronized void compact() {
+        RoaringBitmap removed = removedUsers;
+        if (overlay.isEmpty() && removed.isEmpty()) {
+            return;
+        }
+        Map<Integer, int[]> pending = new HashMap<>(overlay);
+        Csr base = csr;
+        int maxUserId = Math.max(base.offsets.length - 2,
+                pending.keySet().stream().mapToInt(Integer::intValue).max().orElse(0));
+        CsrBuilder builder = new CsrBuilder(base.targets.length);
+        for (int userId = 0; userId <= maxUserId; userId++) {
+            if (removed.contains(userId)) {
+                continue;
+            }
+            int[] row = pending.get(userId);
+            int[] targets = row != null ? row : base.targets;
+            int from = row != null ? 0 : base.start(userId);
+            int to = row != null ? row.length : base.end(userId);
+            for (int i = from; i < to; i++) {
+                if (!removed.contains(targets[i])) {
+                    builder.add(userId, targets[i]);
+                }
+            }
+        }
+        csr = builder.build();
+        pending.forEach(overlay::remove);
+        if (!removed.isEmpty()) {
+            for (Integer userId : overlay.keySet()) {
+                overlay.computeIfPresent(userId, (id, row) -> withoutRemoved(row, removed));
+            }
+            removedUsers = new RoaringBitmap();
+        }
+        log.debug("Friendship graph compacted: {} rows merged, {} edges", pending.size(), csr.targets.length);
+    }
+
+    private static List<Integer> toList(int[] ids) {
+        List<Integer> list = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            list.add(id);
+        }
+        return list;
+    }
+
+    private static final class Csr {
+        private final int[] offsets;
+        private final int[] targets;
+
+        private Csr(int[] offsets, int[] targets) {
+            this.offsets = offsets;
+            this.targets = targets;
+        }
+
+        private int start(int userId) {
+            return userId >= 0 && userId + 1 < offsets.length ? offsets[userId] : 0;
+        }
+
+        private int end(int userId) {
+            return userId >= 0 && userId + 1 < offsets.length ? offsets[userId + 1] : 0;
+        }
+    }
+
+    /**
+     * Собирает CSR из рёбер, упорядоченных по id пользователя.
+     */
+    private static final class CsrBuilder {
+        private int[] offsets = new int[16];
+        private int[] targets;
+        private int lastUserId;
+        private int edges;
+
+        private CsrBuilder(int expectedEdges) {
+            targets = new int[Math.max(expectedEdges, 16)];
+        }
+
+        private void add(int userId, int friendId) {
+            if (userId + 2 > offsets.length) {
+                offsets = Arrays.copyOf(offsets, Math.max(offsets.length * 2, userId + 2));
+            }
+            while (lastUserId < userId) {
+                offsets[++lastUserId] = edges;
+            }
+            if (edges == targets.length) {
+                targets = Arrays.copyOf(targets, edges * 2);
+            }
+            targets[edges++] = friendId;
+        }
+
+        private Csr build() {
+            int[] result = Arrays.copyOf(offsets, lastUserId + 2);
+            result[lastUserId + 1] = edges;
+            return new Csr(result, Arrays.copyOf(targets, edges));
+        }
+    }
+
+    /**
+     * Счётчик по int-ключам с открытой адресацией; id пользователей положительны, 0 — пустая ячейка.
+     */
+    private static final class IntCounter {
+        private int[] keys;
+        private int[] counts;
+        private int size;
+
+        private IntCounter(int expected) {
+            int capacity = 16;
+            while (capacity < expected * 2 && capacity < 1 << 30) {
+                capacity <<= 1;
+            }
+            keys = new int[capacity];
+            counts = new int[capacity];
+        }
+
+        private void incrementAll(int[] ids, int from, int to) {
+            for (int i = from; i < to; i++) {
+                increment(ids[i]);
+            }
+        }
+
+        private void increment(int key) {
+            int mask = keys.length - 1;
+            int slot = hash(key) & mask;
+            while (keys[slot] != 0 && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            counts[slot]++;
+            if (keys[slot] == 0) {
+                keys[slot] = key;
+                if (++size * 2 > keys.length) {
+                    resize();
+                }
+            }
+        }
+
+        private void resize() {
+            int[] oldKeys = keys;
+            int[] oldCounts = counts;
+            keys = new int[oldKeys.length * 2];
+            counts = new int[oldKeys.length * 2];
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) {
+                    int slot = hash(oldKeys[i]) & mask;
+                    while (keys[slot] != 0) {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot] = oldKeys[i];
+                    counts[slot] = oldCounts[i];
+                }
+            }
+        }
+
+        private static int hash(int key) {
+            int h = key * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+}
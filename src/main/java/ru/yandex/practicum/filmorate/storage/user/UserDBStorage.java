@@ -1,85 +1,189 @@
 package ru.yandex.practicum.filmorate.storage.user;
 
-import lombok.AllArgsConstructor;
-import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.simple.SimpleJdbcInsert;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
 import ru.yandex.practicum.filmorate.exceptions.UserNotFoundException;
-import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.BatchConflict;
 import ru.yandex.practicum.filmorate.model.User;
-import ru.yandex.practicum.filmorate.storage.film.FilmDBStorage;
+import ru.yandex.practicum.filmorate.model.UserBatchResult;
+import ru.yandex.practicum.filmorate.storage.GroupingResultSetExtractor;
 
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
 import java.util.*;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 @Component
-@AllArgsConstructor
 public class UserDBStorage implements UserStorage {
+    private static final int STREAM_FETCH_SIZE = 500;
+    private static final String UNIQUE_VIOLATION = "23505";
+    private static final String INSERT_USER = "insert into users (user_name, user_login, user_email, user_birthday) " +
+            "values (?, ?, ?, ?)";
+
     private final JdbcTemplate jdbcTemplate;
-    private final FilmDBStorage filmDBStorage;
+    private final TransactionTemplate transactionTemplate;
+    private final SimpleJdbcInsert userInsert;
+
+    public UserDBStorage(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.userInsert = new SimpleJdbcInsert(jdbcTemplate)
+                .withTableName("users")
+                .usingColumns("user_name", "user_login", "user_email", "user_birthday")
+                .usingGeneratedKeyColumns("user_id");
+    }
 
     @Override
     public User getUserById(int id) {
-        try {
-            List<User> users = jdbcTemplate.queryForObject("SELECT * " +
-                    "FROM users u " +
-                    "LEFT JOIN friendships f ON u.user_id = f.user1_id " +
-                    "WHERE u.user_id = ?", userRowMapper(), id);
-            if (users != null) {
-                return users.get(0);
-            } else {
-                throw new UserNotFoundException(String.format(String.format("User id %d not found", id)));
-            }
-        } catch (EmptyResultDataAccessException e) {
-            throw new UserNotFoundException(String.format(String.format("User id %d not found", id)));
+        List<User> users = jdbcTemplate.query("SELECT u.user_id, u.user_name, u.user_login, " +
+                "u.user_email, u.user_birthday, f.user2_id " +
+                "FROM users u " +
+                "LEFT JOIN friendships f ON u.user_id = f.user1_id " +
+                "WHERE u.user_id = ?", usersExtractor(), id);
+        if (users == null || users.isEmpty()) {
+            throw new UserNotFoundException(String.format("User id %d not found", id));
         }
+        return users.get(0);
     }
 
     @Override
     public List<User> getListAllUsers() {
-        try {
-            return jdbcTemplate.queryForObject("SELECT u.user_id, u.user_name, u.user_login, " +
-                    "u.user_email, u.user_birthday, f.user2_id " +
-                    "FROM users u " +
-                    "LEFT JOIN friendships f ON u.user_id = f.user1_id", userRowMapper());
-        } catch (Exception e) {
-            return new ArrayList<>();
-        }
+        return jdbcTemplate.query("SELECT u.user_id, u.user_name, u.user_login, " +
+                "u.user_email, u.user_birthday, f.user2_id " +
+                "FROM users u " +
+                "LEFT JOIN friendships f ON u.user_id = f.user1_id " +
+                "ORDER BY u.user_id", usersExtractor());
     }
 
     @Override
-    public User addUser(User user) {
-        if (user.getName().isBlank()) {
-            user.setName(user.getLogin());
-        }
+    public List<User> getUsersPage(int afterId, int limit) {
+        return jdbcTemplate.query("SELECT user_id, user_name, user_login, user_email, user_birthday " +
+                "FROM users WHERE user_id > ? ORDER BY user_id LIMIT ?", userRowMapper(), afterId, limit);
+    }
 
-        SimpleJdbcInsert simpleJdbcInsert = new SimpleJdbcInsert(Objects.requireNonNull(jdbcTemplate.getDataSource()))
-                .withTableName("users")
-                .usingGeneratedKeyColumns("user_id");
+    /**
+     * Id передаются одним массивом и соединяются с users через UNNEST: поиск идёт по первичному
+     * ключу на каждый id, тогда как длинный IN-список H2 сверяет с каждой прочитанной строкой.
+     */
+    @Override
+    public List<User> getUsersByIds(List<Integer> ids) {
+        Integer[] distinct = ids.stream().distinct().toArray(Integer[]::new);
+        return jdbcTemplate.query("SELECT u.user_id, u.user_name, u.user_login, u.user_email, u.user_birthday " +
+                "FROM UNNEST(?) AS ids(id) JOIN users u ON u.user_id = ids.id " +
+                "ORDER BY u.user_id", userRowMapper(), (Object) distinct);
+    }
 
-        Map<String, Object> params = Map.of("user_name", user.getName(),
-                "user_login", user.getLogin(),
-                "user_email", user.getEmail(),
-                "user_birthday", user.getBirthday());
+    @Override
+    public void streamAllUsers(Consumer<User> consumer) {
+        RowMapper<User> mapper = userRowMapper();
+        jdbcTemplate.query(connection -> {
+            PreparedStatement stmt = connection.prepareStatement("SELECT user_id, user_name, user_login, " +
+                            "user_email, user_birthday FROM users ORDER BY user_id",
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            stmt.setFetchSize(STREAM_FETCH_SIZE);
+            return stmt;
+        }, rs -> {
+            consumer.accept(mapper.mapRow(rs, 0));
+        });
+    }
+
+    @Override
+    public User addUser(User user) {
+        defaultName(user);
 
-        int id = simpleJdbcInsert.executeAndReturnKey(params).intValue();
+        Map<String, Object> params = new HashMap<>();
+        params.put("user_name", user.getName());
+        params.put("user_login", user.getLogin());
+        params.put("user_email", user.getEmail());
+        params.put("user_birthday", user.getBirthday());
+
+        int id = userInsert.executeAndReturnKey(params).intValue();
         user.setId(id);
         return user;
     }
 
+    /**
+     * Вставляет пользователей одной транзакцией через пакет одного подготовленного запроса.
+     * Пользователи с занятыми логином или почтой не вставляются и возвращаются как конфликты;
+     * если конфликт возник уже при вставке (параллельная запись), пакет откатывается
+     * до точки сохранения и пользователи вставляются по одному.
+     * Возвращает только сгенерированные при этой вставке id, в порядке входного списка.
+     */
+    @Override
+    public UserBatchResult addUsers(List<User> users) {
+        List<BatchConflict> conflicts = new ArrayList<>();
+        List<Integer> ids = new ArrayList<>();
+        if (users.isEmpty()) {
+            return new UserBatchResult(0, ids, conflicts);
+        }
+        users.forEach(UserDBStorage::defaultName);
+        transactionTemplate.executeWithoutResult(status -> {
+            List<Integer> accepted = findConflicts(users, conflicts);
+            if (accepted.isEmpty()) {
+                return;
+            }
+            jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+                try (PreparedStatement stmt = connection.prepareStatement(INSERT_USER, new String[]{"user_id"})) {
+                    Savepoint savepoint = connection.setSavepoint();
+                    try {
+                        for (int index : accepted) {
+                            bindUser(stmt, users.get(index));
+                            stmt.addBatch();
+                        }
+                        stmt.executeBatch();
+                        try (ResultSet keys = stmt.getGeneratedKeys()) {
+                            for (int index : accepted) {
+                                if (!keys.next()) {
+                                    throw new IllegalStateException("Generated user ids are missing");
+                                }
+                                users.get(index).setId(keys.getInt(1));
+                                ids.add(keys.getInt(1));
+                            }
+                        }
+                    } catch (BatchUpdateException e) {
+                        if (!UNIQUE_VIOLATION.equals(e.getSQLState())) {
+                            throw e;
+                        }
+                        connection.rollback(savepoint);
+                        stmt.clearBatch();
+                        ids.clear();
+                        insertOneByOne(connection, stmt, users, accepted, ids, conflicts);
+                    }
+                }
+                return null;
+            });
+        });
+        conflicts.sort(Comparator.comparingInt(BatchConflict::getIndex));
+        return new UserBatchResult(ids.size(), ids, conflicts);
+    }
+
     @Override
     public User deleteUser(int id) {
-        User user = getUserById(id);
-        jdbcTemplate.update("DELETE FROM users WHERE user_id = ?", id);
-        return user;
+        return transactionTemplate.execute(status -> {
+            User user = getUserById(id);
+            jdbcTemplate.update("UPDATE films SET film_rating = film_rating - 1 " +
+                    "WHERE film_id IN (SELECT film_id FROM likes WHERE user_id = ?)", id);
+            if (jdbcTemplate.update("DELETE FROM users WHERE user_id = ?", id) == 0) {
+                throw new UserNotFoundException(String.format("User id %d not found", id));
+            }
+            return user;
+        });
     }
 
     @Override
     public User updateUser(User user) {
-        getUserById(user.getId());
-        jdbcTemplate.update("UPDATE users " +
+        int updated = jdbcTemplate.update("UPDATE users " +
                         "SET user_name = ?, " +
                         "user_login = ?, " +
                         "user_email = ?, " +
@@ -90,106 +194,106 @@ public class UserDBStorage implements UserStorage {
                 user.getEmail(),
                 user.getBirthday(),
                 user.getId());
+        if (updated == 0) {
+            throw new UserNotFoundException(String.format("User id %d not found", user.getId()));
+        }
         return user;
     }
 
     @Override
     public void addFriend(int id1, int id2) {
-        getUserById(id1);
-        getUserById(id2);
-
         jdbcTemplate.update("INSERT INTO friendships (user1_id, user2_id) " +
                 "VALUES (?, ?)", id1, id2);
-
     }
 
     @Override
     public void deleteFriend(int id1, int id2) {
-        getUserById(id1);
-        getUserById(id2);
-
         jdbcTemplate.update("DELETE FROM friendships " +
                 "WHERE user1_id = ? AND user2_id = ?", id1, id2);
     }
 
-    @Override
-    public List<User> listAllFriends(int id) {
-        getUserById(id);
-        try {
-            return jdbcTemplate.queryForObject("SELECT u.user_id, u.user_name, u.user_login, " +
-                    "u.user_email, u.user_birthday, f2.user2_id from friendships f " +
-                    "join users u on f.user2_id = u.user_id " +
-                    "left join friendships f2 on u.user_id = f2.user1_id " +
-                    "where f.user1_id = ?", userRowMapper(), id);
-        } catch (Exception e) {
-            return new ArrayList<>();
+    private List<Integer> findConflicts(List<User> users, List<BatchConflict> conflicts) {
+        String placeholders = String.join(", ", Collections.nCopies(users.size(), "?"));
+        List<Object> params = new ArrayList<>(users.size() * 2);
+        users.forEach(user -> params.add(user.getLogin()));
+        users.forEach(user -> params.add(user.getEmail()));
+        Set<String> logins = new HashSet<>();
+        Set<String> emails = new HashSet<>();
+        jdbcTemplate.query("select user_login, user_email from users " +
+                "where user_login in (" + placeholders + ") or user_email in (" + placeholders + ")", rs -> {
+            logins.add(rs.getString("user_login"));
+            emails.add(rs.getString("user_email"));
+        }, params.toArray());
+
+        List<Integer> accepted = new ArrayList<>(users.size());
+        for (int i = 0; i < users.size(); i++) {
+            User user = users.get(i);
+            if (!logins.add(user.getLogin())) {
+                conflicts.add(new BatchConflict(i, "login", user.getLogin()));
+            } else if (!emails.add(user.getEmail())) {
+                logins.remove(user.getLogin());
+                conflicts.add(new BatchConflict(i, "email", user.getEmail()));
+            } else {
+                accepted.add(i);
+            }
         }
+        return accepted;
     }
 
-    private RowMapper<List<User>> userRowMapper() {
-        return (rs, rowNum) -> {
-            List<User> users = new ArrayList<>();
-
-            User user = new User(rs.getInt("user_id"), rs.getString("user_email"),
-                    rs.getString("user_login"), rs.getString("user_name"),
-                    rs.getDate("user_birthday").toLocalDate());
-            do {
-                if (user.getId() == rs.getInt("user_id")) {
-                    if (rs.getInt("user2_id") != 0) {
-                        user.getFriendsList().add(rs.getInt("user2_id"));
+    private void insertOneByOne(Connection connection, PreparedStatement stmt, List<User> users,
+                                List<Integer> accepted, List<Integer> ids,
+                                List<BatchConflict> conflicts) throws SQLException {
+        for (int index : accepted) {
+            User user = users.get(index);
+            Savepoint savepoint = connection.setSavepoint();
+            try {
+                bindUser(stmt, user);
+                stmt.executeUpdate();
+                try (ResultSet keys = stmt.getGeneratedKeys()) {
+                    if (!keys.next()) {
+                        throw new IllegalStateException("Generated user id is missing");
                     }
-                } else {
-                    user = new User(rs.getInt("user_id"), rs.getString("user_email"),
-                            rs.getString("user_login"), rs.getString("user_name"),
-                            rs.getDate("user_birthday").toLocalDate());
+                    user.setId(keys.getInt(1));
+                    ids.add(keys.getInt(1));
                 }
-                if (!users.stream()
-                        .map(User::getId)
-                        .collect(Collectors.toList()).contains(user.getId())) {
-                    users.add(user);
+                connection.releaseSavepoint(savepoint);
+            } catch (SQLException e) {
+                if (!UNIQUE_VIOLATION.equals(e.getSQLState())) {
+                    throw e;
                 }
-            } while (rs.next());
-            return users;
-        };
+                connection.rollback(savepoint);
+                boolean login = String.valueOf(e.getMessage()).toLowerCase().contains("user_login");
+                conflicts.add(new BatchConflict(index, login ? "login" : "email",
+                        login ? user.getLogin() : user.getEmail()));
+            }
+        }
     }
 
-    @Override
-    public List<Film> getRecommendations(int id) {
-        User user = getUserById(id);
-        if (getUsersWithSameLikes(id).isEmpty()) return new ArrayList<>();
-        User mostCrossUser = getUserById(getUsersWithSameLikes(id).get(0));
-        return likesFromUser(mostCrossUser).stream()
-                .filter(i -> !likesFromUser(user).contains(i))
-                .map(filmDBStorage::getFilmById)
-                .collect(Collectors.toList());
-    }
-
-    private List<Integer> getUsersWithSameLikes(int userId) {
-        try {
-            final String sqlQuery = "select l2.user_id, count(l2.film_id) " +
-                    "from likes l " +
-                    "join likes l2 on (l.user_id != l2.user_id and l.film_id = l2.film_id) " +
-                    "join users u on (l2.user_id != u.user_id) " +
-                    "where l.user_id = ? " +
-                    "group by l2.user_id having count(l2.film_id) > 1 order by count(l2.film_id) desc limit 10";
-            return jdbcTemplate.query(sqlQuery, (rs, rowNum) -> rs.getInt("USER_ID"), userId);
-        } catch (EmptyResultDataAccessException e) {
-            return new ArrayList<>();
-        }
+    private static void bindUser(PreparedStatement stmt, User user) throws SQLException {
+        stmt.setString(1, user.getName());
+        stmt.setString(2, user.getLogin());
+        stmt.setString(3, user.getEmail());
+        stmt.setDate(4, Date.valueOf(user.getBirthday()));
     }
 
-    private List<Integer> likesFromUser(User user) {
-        try {
-            return jdbcTemplate.queryForObject("select film_id from likes where user_id = ?",
-                    (rs, rowNum) -> {
-                        List<Integer> l = new ArrayList<>();
-                        do {
-                            l.add(rs.getInt("film_id"));
-                        } while (rs.next());
-                        return l;
-                    }, user.getId());
-        } catch (EmptyResultDataAccessException e) {
-            return new ArrayList<>();
+    private static void defaultName(User user) {
+        if (user.getName() == null || user.getName().isBlank()) {
+            user.setName(user.getLogin());
         }
     }
-}
\ No newline at end of file
+
+    private RowMapper<User> userRowMapper() {
+        return (rs, rowNum) -> new User(rs.getInt("user_id"), rs.getString("user_email"),
+                rs.getString("user_login"), rs.getString("user_name"),
+                rs.getDate("user_birthday").toLocalDate());
+    }
+
+    private ResultSetExtractor<List<User>> usersExtractor() {
+        return GroupingResultSetExtractor.grouping((rs, rowNum) -> rs.getInt("user_id"), userRowMapper(),
+                (user, rs) -> {
+                    if (rs.getInt("user2_id") != 0) {
+                        user.getFriendsList().add(rs.getInt("user2_id"));
+                    }
+                });
+    }
+}
@@ -1,10 +1,11 @@
 package ru.yandex.practicum.filmorate.storage.user;
 
 import org.springframework.stereotype.Component;
-import ru.yandex.practicum.filmorate.model.Film;
 import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.model.UserBatchResult;
 
 import java.util.List;
+import java.util.function.Consumer;
 
 @Component
 public interface UserStorage {
@@ -13,8 +14,16 @@ public interface UserStorage {
 
     List<User> getListAllUsers();
 
+    List<User> getUsersPage(int afterId, int limit);
+
+    List<User> getUsersByIds(List<Integer> ids);
+
+    void streamAllUsers(Consumer<User> consumer);
+
     User addUser(User user);
 
+    UserBatchResult addUsers(List<User> users);
+
     User deleteUser(int id);
 
     User updateUser(User user);
@@ -23,7 +32,4 @@ public interface UserStorage {
 
     void deleteFriend(int id0, int id1);
 
-    List<User> listAllFriends(int id);
-
-    List<Film> getRecommendations(int id);
 }
@@ -62,6 +62,8 @@ user2_id int not null references users(user_id) on delete cascade,
 primary key (user1_id, user2_id)
 );
 
+create index if not exists friendships_user2_idx on friendships (user2_id);
+
 create table if not exists event_types (
 event_type_id serial not null primary key,
 event_type_name varchar(7) not null unique
@@ -81,6 +83,8 @@ entity_id int not null,
 event_timestamp bigint not null
 );
 
+create index if not exists events_user_event_idx on events (user_id, event_id);
+
 create table if not exists likes (
 user_id int not null references users(user_id) on delete cascade,
 film_id int not null references films(film_id) on delete cascade,
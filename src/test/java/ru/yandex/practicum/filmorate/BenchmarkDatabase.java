@@ -0,0 +1,94 @@
+package ru.yandex.practicum.filmorate;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Приложение для JMH-бенчмарков на заранее заполненной базе H2 в памяти. Схема и справочники
+ * создаются скриптами приложения, затем populate заливает синтетические данные, и только после
+ * этого стартует контекст: индексы в памяти загружаются из заполненной базы, как при обычном запуске.
+ */
+public final class BenchmarkDatabase {
+    private static final int BATCH_SIZE = 10_000;
+
+    private BenchmarkDatabase() {
+    }
+
+    public static ConfigurableApplicationContext start(String name, Consumer<JdbcTemplate> populate,
+                                                       String... properties) {
+        populate.accept(create(name));
+
+        List<String> args = new ArrayList<>(List.of(
+                "spring.datasource.url=" + url(name),
+                "spring.datasource.username=sa",
+                "spring.datasource.password=password",
+                "spring.sql.init.mode=never",
+                "spring.main.web-application-type=none",
+                "logging.level.root=warn"));
+        args.addAll(Arrays.asList(properties));
+        return new SpringApplicationBuilder(FilmorateApplication.class)
+                .run(args.stream().map(arg -> "--" + arg).toArray(String[]::new));
+    }
+
+    /**
+     * База со схемой и справочниками приложения без запуска контекста, для бенчмарков отдельных классов.
+     * Журнал приглушается сразу: до старта контекста logback пишет каждый запрос заполнения.
+     */
+    public static JdbcTemplate create(String name) {
+        ((Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(url(name), "sa", "password");
+        ResourceDatabasePopulator scripts = new ResourceDatabasePopulator(
+                new ClassPathResource("schema.sql"), new ClassPathResource("data.sql"));
+        scripts.setSqlScriptEncoding("UTF-8");
+        scripts.execute(dataSource);
+        return new JdbcTemplate(dataSource);
+    }
+
+    /**
+     * Пакетная вставка порциями, чтобы не держать в памяти драйвера миллионы параметров сразу.
+     */
+    public static void insert(JdbcTemplate jdbcTemplate, String sql, List<Object[]> rows) {
+        for (int from = 0; from < rows.size(); from += BATCH_SIZE) {
+            jdbcTemplate.batchUpdate(sql, rows.subList(from, Math.min(from + BATCH_SIZE, rows.size())));
+        }
+    }
+
+    public static void insertUsers(JdbcTemplate jdbcTemplate, int count) {
+        List<Object[]> users = new ArrayList<>(count);
+        for (int id = 1; id <= count; id++) {
+            users.add(new Object[]{id, "user" + id, "login" + id, "user" + id + "@mail.ru",
+                    Date.valueOf("1990-01-01")});
+        }
+        insert(jdbcTemplate, "insert into users (user_id, user_name, user_login, user_email, user_birthday) " +
+                "values (?, ?, ?, ?, ?)", users);
+        jdbcTemplate.execute("alter table users alter column user_id restart with " + (count + 1));
+    }
+
+    public static void insertFilms(JdbcTemplate jdbcTemplate, int count) {
+        List<Object[]> films = new ArrayList<>(count);
+        for (int id = 1; id <= count; id++) {
+            films.add(new Object[]{id, "Film " + id, "Description of film " + id,
+                    Date.valueOf(String.format("%d-01-01", 1950 + id % 70)), 90 + id % 60, 1 + id % 5});
+        }
+        insert(jdbcTemplate, "insert into films (film_id, film_name, film_description, film_release_date, " +
+                "film_duration, rating_mpa_id) values (?, ?, ?, ?, ?, ?)", films);
+        jdbcTemplate.execute("alter table films alter column film_id restart with " + (count + 1));
+    }
+
+    private static String url(String name) {
+        return "jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1";
+    }
+}
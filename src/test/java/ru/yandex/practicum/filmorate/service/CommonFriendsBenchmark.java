@@ -0,0 +1,99 @@
+package ru.yandex.practicum.filmorate.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.yandex.practicum.filmorate.BenchmarkDatabase;
+import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.storage.user.UserStorage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Общие друзья двух пользователей, у каждого из которых friends друзей, половина из них общие:
+ * слияние строк графа дружбы и одна пакетная загрузка против прежнего пути, который загружал
+ * обоих пользователей со списками друзей и затем каждого общего друга отдельным запросом.
+ * Запуск: mvn test-compile, затем org.openjdk.jmh.Main CommonFriendsBenchmark на тестовом classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CommonFriendsBenchmark {
+    private static final int LEFT_ID = 1;
+    private static final int RIGHT_ID = 2;
+    private static final int FRIENDS_OF_FRIEND = 10;
+
+    @Param({"5000", "10000"})
+    private int friends;
+
+    private ConfigurableApplicationContext context;
+    private UserService userService;
+    private UserStorage userStorage;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = BenchmarkDatabase.start("common-friends-" + friends, this::populate);
+        userService = context.getBean(UserService.class);
+        userStorage = context.getBean(UserStorage.class);
+        System.out.printf("Common friends of users with %d friends: graph %d, per-id load %d%n",
+                friends, graph().size(), perIdLoad().size());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public List<User> graph() {
+        return userService.commonFriends(LEFT_ID, RIGHT_ID);
+    }
+
+    /**
+     * UserService.commonFriends до перехода на граф дружбы.
+     */
+    @Benchmark
+    public List<User> perIdLoad() {
+        Set<Integer> right = userStorage.getUserById(RIGHT_ID).getFriendsList();
+        return userStorage.getUserById(LEFT_ID).getFriendsList().stream()
+                .filter(right::contains).filter(id -> id != 0)
+                .map(userStorage::getUserById).distinct().collect(Collectors.toList());
+    }
+
+    private void populate(JdbcTemplate jdbcTemplate) {
+        int firstFriend = RIGHT_ID + 1;
+        int users = RIGHT_ID + friends + friends / 2;
+        BenchmarkDatabase.insertUsers(jdbcTemplate, users);
+        List<Object[]> friendships = new ArrayList<>();
+        for (int i = 0; i < friends; i++) {
+            friendships.add(new Object[]{LEFT_ID, firstFriend + i});
+            friendships.add(new Object[]{RIGHT_ID, firstFriend + friends / 2 + i});
+        }
+        for (int userId = firstFriend; userId <= users; userId++) {
+            for (int i = 1; i <= FRIENDS_OF_FRIEND; i++) {
+                friendships.add(new Object[]{userId, firstFriend + (userId + i) % (users - RIGHT_ID)});
+            }
+        }
+        BenchmarkDatabase.insert(jdbcTemplate, "merge into friendships (user1_id, user2_id) values (?, ?)",
+                friendships);
+    }
+}
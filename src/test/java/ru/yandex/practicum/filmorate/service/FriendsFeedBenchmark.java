@@ -0,0 +1,96 @@
+package ru.yandex.practicum.filmorate.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import ru.yandex.practicum.filmorate.BenchmarkDatabase;
+import ru.yandex.practicum.filmorate.model.Event;
+import ru.yandex.practicum.filmorate.model.enums.EventOperation;
+import ru.yandex.practicum.filmorate.model.enums.EventType;
+import ru.yandex.practicum.filmorate.storage.EventStorage;
+import ru.yandex.practicum.filmorate.storage.FriendTimelines;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Задержка чтения ленты друзей в зависимости от числа друзей читателя: лента из готового
+ * таймлайна против выборки последних событий всех друзей одним запросом при чтении.
+ * Запуск: mvn test-compile, затем org.openjdk.jmh.Main FriendsFeedBenchmark на тестовом classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FriendsFeedBenchmark {
+    private static final int READER_ID = 1;
+    private static final int EVENTS_PER_FRIEND = 5;
+    private static final int TIMELINE_SIZE = 200;
+    private static final int PAGE = 100;
+
+    @Param({"10", "100", "1000", "5000"})
+    private int friends;
+
+    private ConfigurableApplicationContext context;
+    private EventService eventService;
+    private EventStorage eventStorage;
+    private List<Integer> friendIds;
+
+    @Setup(Level.Trial)
+    public void setUp() throws InterruptedException {
+        friendIds = IntStream.rangeClosed(READER_ID + 1, READER_ID + friends).boxed().collect(Collectors.toList());
+        context = BenchmarkDatabase.start("friends-feed-" + friends, jdbcTemplate -> {
+            BenchmarkDatabase.insertUsers(jdbcTemplate, friends + 1);
+            List<Object[]> friendships = new ArrayList<>(friends);
+            for (int friendId : friendIds) {
+                friendships.add(new Object[]{READER_ID, friendId});
+            }
+            BenchmarkDatabase.insert(jdbcTemplate, "insert into friendships (user1_id, user2_id) values (?, ?)",
+                    friendships);
+        }, "filmorate.friends-feed.timeline-size=" + TIMELINE_SIZE);
+        eventService = context.getBean(EventService.class);
+        eventStorage = context.getBean(EventStorage.class);
+        FriendTimelines friendTimelines = context.getBean(FriendTimelines.class);
+
+        for (int round = 0; round < EVENTS_PER_FRIEND; round++) {
+            for (int friendId : friendIds) {
+                eventStorage.addEvent(friendId, EventType.FRIEND, EventOperation.ADD, friendId);
+            }
+        }
+        int expected = Math.min(TIMELINE_SIZE, friends * EVENTS_PER_FRIEND);
+        while (friendTimelines.getEventIds(READER_ID, Integer.MAX_VALUE).size() < expected) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public List<Event> timeline() {
+        return eventService.getFriendsFeed(READER_ID, Integer.MAX_VALUE, PAGE);
+    }
+
+    @Benchmark
+    public List<Event> queryAllFriends() {
+        return eventStorage.getEventsOfUsers(friendIds, Integer.MAX_VALUE, PAGE);
+    }
+}
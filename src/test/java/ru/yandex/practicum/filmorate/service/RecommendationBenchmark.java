@@ -0,0 +1,136 @@
+package ru.yandex.practicum.filmorate.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.yandex.practicum.filmorate.BenchmarkDatabase;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.storage.film.FilmDBStorage;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Рекомендации на каталоге из 100 000 пользователей и 50 000 фильмов, по 20 случайных лайков
+ * на пользователя: движок по матрице лайков в памяти (расчёт на месте и готовый список) против
+ * прежнего SQL-пути из UserDBStorage.getRecommendations. Прежний путь повторён дословно, кроме
+ * загрузки фильма: getFilmById уже идёт через FilmHydrator, так что его оценка занижена.
+ * Запуск: mvn test-compile, затем org.openjdk.jmh.Main RecommendationBenchmark на тестовом classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class RecommendationBenchmark {
+    private static final int USERS = 100_000;
+    private static final int FILMS = 50_000;
+    private static final int LIKES_PER_USER = 20;
+    private static final int SAMPLE = 64;
+    private static final int COUNT = 10;
+    private static final String SAME_LIKES_SQL = "select l2.user_id, count(l2.film_id) " +
+            "from likes l " +
+            "join likes l2 on (l.user_id != l2.user_id and l.film_id = l2.film_id) " +
+            "join users u on (l2.user_id != u.user_id) " +
+            "where l.user_id = ? " +
+            "group by l2.user_id having count(l2.film_id) > 1 order by count(l2.film_id) desc limit 10";
+
+    private ConfigurableApplicationContext context;
+    private RecommendationService recommendationService;
+    private FilmDBStorage filmDBStorage;
+    private JdbcTemplate jdbcTemplate;
+    private int[] userIds;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = BenchmarkDatabase.start("recommendations", this::populate,
+                "filmorate.recommendations.refresh-interval-ms=3600000",
+                "filmorate.similar.refresh-interval-ms=3600000");
+        recommendationService = context.getBean(RecommendationService.class);
+        filmDBStorage = context.getBean(FilmDBStorage.class);
+        jdbcTemplate = context.getBean(JdbcTemplate.class);
+        Random random = new Random(7);
+        userIds = random.ints(SAMPLE, 1, USERS + 1).toArray();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public List<Film> engine() {
+        return filmDBStorage.getFilmsByIds(recommendationService.recommend(nextUser(), COUNT));
+    }
+
+    @Benchmark
+    public List<Film> stored() {
+        return recommendationService.getRecommendations(nextUser(), COUNT);
+    }
+
+    @Benchmark
+    @Warmup(iterations = 1, time = 1)
+    @Measurement(iterations = 3, time = 1)
+    public List<Film> sql() {
+        int userId = nextUser();
+        if (getUsersWithSameLikes(userId).isEmpty()) {
+            return new ArrayList<>();
+        }
+        int mostCrossUser = getUsersWithSameLikes(userId).get(0);
+        return likesFromUser(mostCrossUser).stream()
+                .filter(filmId -> !likesFromUser(userId).contains(filmId))
+                .map(filmDBStorage::getFilmById)
+                .collect(Collectors.toList());
+    }
+
+    private List<Integer> getUsersWithSameLikes(int userId) {
+        return jdbcTemplate.query(SAME_LIKES_SQL, (rs, rowNum) -> rs.getInt("user_id"), userId);
+    }
+
+    private List<Integer> likesFromUser(int userId) {
+        return jdbcTemplate.queryForList("select film_id from likes where user_id = ?", Integer.class, userId);
+    }
+
+    private int nextUser() {
+        next = (next + 1) % SAMPLE;
+        return userIds[next];
+    }
+
+    private void populate(JdbcTemplate jdbcTemplate) {
+        BenchmarkDatabase.insertUsers(jdbcTemplate, USERS);
+        BenchmarkDatabase.insertFilms(jdbcTemplate, FILMS);
+        Random random = new Random(42);
+        List<Object[]> likes = new ArrayList<>(USERS * LIKES_PER_USER);
+        Set<Integer> liked = new HashSet<>();
+        for (int userId = 1; userId <= USERS; userId++) {
+            liked.clear();
+            while (liked.size() < LIKES_PER_USER) {
+                liked.add(1 + random.nextInt(FILMS));
+            }
+            for (int filmId : liked) {
+                likes.add(new Object[]{userId, filmId});
+            }
+        }
+        BenchmarkDatabase.insert(jdbcTemplate, "insert into likes (user_id, film_id) values (?, ?)", likes);
+        jdbcTemplate.update("update films f set film_rating = " +
+                "(select count(*) from likes l where l.film_id = f.film_id)");
+    }
+}
@@ -0,0 +1,113 @@
+package ru.yandex.practicum.filmorate.storage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import ru.yandex.practicum.filmorate.BenchmarkDatabase;
+import ru.yandex.practicum.filmorate.model.User;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Свёртка выборки пользователей с друзьями (по строке на дружбу) в список пользователей:
+ * {@link GroupingResultSetExtractor} против прежнего RowMapper, который на каждой строке
+ * пересобирал список id уже найденных пользователей. Время на строку у первого должно
+ * оставаться постоянным с ростом выборки, у второго — расти линейно.
+ * Запуск: mvn test-compile, затем org.openjdk.jmh.Main GroupingResultSetExtractorBenchmark
+ * на тестовом classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GroupingResultSetExtractorBenchmark {
+    private static final int FRIENDS_PER_USER = 2;
+    private static final String SQL = "select u.user_id, u.user_name, u.user_login, u.user_email, " +
+            "u.user_birthday, f.user2_id " +
+            "from users u " +
+            "left join friendships f on u.user_id = f.user1_id " +
+            "order by u.user_id";
+
+    @Param({"1000", "4000", "16000"})
+    private int users;
+
+    private JdbcTemplate jdbcTemplate;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        jdbcTemplate = BenchmarkDatabase.create("grouping-extractor-" + users);
+        BenchmarkDatabase.insertUsers(jdbcTemplate, users);
+        List<Object[]> friendships = new ArrayList<>(users * FRIENDS_PER_USER);
+        for (int userId = 1; userId <= users; userId++) {
+            for (int i = 1; i <= FRIENDS_PER_USER; i++) {
+                friendships.add(new Object[]{userId, 1 + (userId + i - 1) % users});
+            }
+        }
+        BenchmarkDatabase.insert(jdbcTemplate, "insert into friendships (user1_id, user2_id) values (?, ?)",
+                friendships);
+    }
+
+    @Benchmark
+    public List<User> grouping() {
+        return jdbcTemplate.query(SQL, GroupingResultSetExtractor.grouping((rs, rowNum) -> rs.getInt("user_id"),
+                (rs, rowNum) -> new User(rs.getInt("user_id"), rs.getString("user_email"),
+                        rs.getString("user_login"), rs.getString("user_name"),
+                        rs.getDate("user_birthday").toLocalDate()),
+                (user, rs) -> {
+                    if (rs.getInt("user2_id") != 0) {
+                        user.getFriendsList().add(rs.getInt("user2_id"));
+                    }
+                }));
+    }
+
+    @Benchmark
+    public List<User> rowMapper() {
+        return jdbcTemplate.queryForObject(SQL, previousRowMapper());
+    }
+
+    /**
+     * RowMapper из UserDBStorage до перехода на GroupingResultSetExtractor.
+     */
+    private static RowMapper<List<User>> previousRowMapper() {
+        return (rs, rowNum) -> {
+            List<User> users = new ArrayList<>();
+
+            User user = new User(rs.getInt("user_id"), rs.getString("user_email"),
+                    rs.getString("user_login"), rs.getString("user_name"),
+                    rs.getDate("user_birthday").toLocalDate());
+            do {
+                if (user.getId() == rs.getInt("user_id")) {
+                    if (rs.getInt("user2_id") != 0) {
+                        user.getFriendsList().add(rs.getInt("user2_id"));
+                    }
+                } else {
+                    user = new User(rs.getInt("user_id"), rs.getString("user_email"),
+                            rs.getString("user_login"), rs.getString("user_name"),
+                            rs.getDate("user_birthday").toLocalDate());
+                }
+                if (!users.stream()
+                        .map(User::getId)
+                        .collect(Collectors.toList()).contains(user.getId())) {
+                    users.add(user);
+                }
+            } while (rs.next());
+            return users;
+        };
+    }
+}
@@ -0,0 +1,81 @@
+package ru.yandex.practicum.filmorate.storage.film;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Mpa;
+import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.storage.user.UserStorage;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:likes-concurrency;DB_CLOSE_DELAY=-1",
+        "spring.sql.init.encoding=UTF-8",
+        "filmorate.likes.write-behind.enabled=false"
+})
+class FilmDBStorageLikeConcurrencyTest {
+    private static final int THREADS = 8;
+    private static final int USERS = 20;
+    private static final int OPERATIONS_PER_THREAD = 500;
+
+    @Autowired
+    private FilmDBStorage filmDBStorage;
+    @Autowired
+    private UserStorage userStorage;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void ratingMatchesLikesUnderConcurrentLikeAndUnlike() throws Exception {
+        Film film = filmDBStorage.addFilm(new Film(0, "Film", "Description",
+                LocalDate.of(2000, 1, 1), 120, new Mpa(1, "G")));
+        List<Integer> userIds = new ArrayList<>();
+        for (int i = 0; i < USERS; i++) {
+            userIds.add(userStorage.addUser(new User(0, "user" + i + "@mail.ru", "user" + i,
+                    "User " + i, LocalDate.of(1990, 1, 1))).getId());
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+                    int userId = userIds.get(random.nextInt(userIds.size()));
+                    if (random.nextBoolean()) {
+                        filmDBStorage.addLike(userId, film.getId());
+                    } else {
+                        filmDBStorage.deleteLike(userId, film.getId());
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        Integer rating = jdbcTemplate.queryForObject("select film_rating from films where film_id = ?",
+                Integer.class, film.getId());
+        Integer likes = jdbcTemplate.queryForObject("select count(*) from likes where film_id = ?",
+                Integer.class, film.getId());
+        assertEquals(likes, rating);
+        assertEquals(likes.intValue(), filmDBStorage.getFilmById(film.getId()).getRate());
+    }
+}
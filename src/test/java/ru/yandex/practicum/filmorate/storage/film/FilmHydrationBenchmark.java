@@ -0,0 +1,124 @@
+package ru.yandex.practicum.filmorate.storage.film;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.yandex.practicum.filmorate.BenchmarkDatabase;
+import ru.yandex.practicum.filmorate.model.Film;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Чтение всего каталога: сборка фильмов запросами с IN-списком на каждую связь против прежнего
+ * запроса с шестью LEFT JOIN, который возвращал произведение жанров, режиссёров и лайков.
+ * Для прежнего пути строки только пересчитываются, без свёртки в фильмы, то есть это нижняя
+ * оценка его стоимости. Число строк обоих путей печатается при подготовке.
+ * Запуск: mvn test-compile, затем org.openjdk.jmh.Main FilmHydrationBenchmark на тестовом classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FilmHydrationBenchmark {
+    private static final int FILMS = 1000;
+    private static final int GENRES_PER_FILM = 3;
+    private static final int DIRECTORS = 100;
+    private static final int DIRECTORS_PER_FILM = 2;
+    private static final String JOINED_SQL = "select f.film_id, f.film_name, f.film_description, " +
+            "f.film_release_date, f.film_duration, f.film_rating, f.rating_mpa_id, rm.rating_name, " +
+            "fg.genre_id, g.genre_name, l.user_id, fd.director_id, d.director_name " +
+            "from films f " +
+            "left join film_genre fg on f.film_id = fg.film_id " +
+            "left join genres g on fg.genre_id = g.genre_id " +
+            "left join ratings_mpa rm on f.rating_mpa_id = rm.rating_id " +
+            "left join likes l on f.film_id = l.film_id " +
+            "left join film_director fd on f.film_id = fd.film_id " +
+            "left join directors d on fd.director_id = d.director_id ";
+
+    @Param({"10", "100", "1000"})
+    private int likesPerFilm;
+
+    private ConfigurableApplicationContext context;
+    private FilmDBStorage filmDBStorage;
+    private JdbcTemplate jdbcTemplate;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = BenchmarkDatabase.start("film-hydration-" + likesPerFilm, this::populate);
+        filmDBStorage = context.getBean(FilmDBStorage.class);
+        jdbcTemplate = context.getBean(JdbcTemplate.class);
+        Integer joinedRows = jdbcTemplate.queryForObject("select count(*) from (" + JOINED_SQL + ")",
+                Integer.class);
+        Integer hydratedRows = jdbcTemplate.queryForObject("select (select count(*) from films) " +
+                "+ (select count(*) from film_genre) + (select count(*) from film_director) " +
+                "+ (select count(distinct film_id) from likes)", Integer.class);
+        System.out.printf("Rows read for %d films with %d likes each: join %d, hydration %d%n",
+                FILMS, likesPerFilm, joinedRows, hydratedRows);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public List<Film> hydrated() {
+        return filmDBStorage.getListAllFilms();
+    }
+
+    @Benchmark
+    public int joined() {
+        int[] rows = new int[1];
+        jdbcTemplate.query(JOINED_SQL + "order by f.film_id", rs -> {
+            rows[0]++;
+        });
+        return rows[0];
+    }
+
+    private void populate(JdbcTemplate jdbcTemplate) {
+        BenchmarkDatabase.insertUsers(jdbcTemplate, likesPerFilm);
+        BenchmarkDatabase.insertFilms(jdbcTemplate, FILMS);
+        List<Object[]> directors = new ArrayList<>(DIRECTORS);
+        for (int id = 1; id <= DIRECTORS; id++) {
+            directors.add(new Object[]{id, "Director " + id});
+        }
+        BenchmarkDatabase.insert(jdbcTemplate, "insert into directors (director_id, director_name) values (?, ?)",
+                directors);
+        List<Object[]> genres = new ArrayList<>();
+        List<Object[]> filmDirectors = new ArrayList<>();
+        List<Object[]> likes = new ArrayList<>();
+        for (int filmId = 1; filmId <= FILMS; filmId++) {
+            for (int i = 0; i < GENRES_PER_FILM; i++) {
+                genres.add(new Object[]{filmId, 1 + (filmId + i) % 6});
+            }
+            for (int i = 0; i < DIRECTORS_PER_FILM; i++) {
+                filmDirectors.add(new Object[]{filmId, 1 + (filmId + i) % DIRECTORS});
+            }
+            for (int userId = 1; userId <= likesPerFilm; userId++) {
+                likes.add(new Object[]{userId, filmId});
+            }
+        }
+        BenchmarkDatabase.insert(jdbcTemplate, "insert into film_genre (film_id, genre_id) values (?, ?)", genres);
+        BenchmarkDatabase.insert(jdbcTemplate, "insert into film_director (film_id, director_id) values (?, ?)",
+                filmDirectors);
+        BenchmarkDatabase.insert(jdbcTemplate, "insert into likes (user_id, film_id) values (?, ?)", likes);
+        jdbcTemplate.update("update films f set film_rating = " +
+                "(select count(*) from likes l where l.film_id = f.film_id)");
+    }
+}